@@ -0,0 +1,46 @@
+package com.example.networking.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LocalServers starts servers for the benchmarks and waits until they listen on
+ * 127.0.0.1, whether they run in this process or in a child one. Nothing is sent on
+ * the probe connections, so it works with every protocol in the tree.
+ */
+public final class LocalServers {
+    private LocalServers() {}
+
+    /**
+     * Retries connecting until something listens on 127.0.0.1:port.
+     * @throws IOException if nothing is listening by the deadline (System.nanoTime() based)
+     */
+    public static void awaitListening(int port, long deadlineNanos) throws IOException, InterruptedException {
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadlineNanos) {
+                    throw new IOException("Nothing listening on port " + port, e);
+                }
+                Thread.sleep(20);
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Runs an in-process server on a daemon thread and waits up to 10 s until it listens on port.
+     */
+    public static void startInBackground(Runnable server, int port) throws IOException, InterruptedException {
+        Thread thread = new Thread(server, "server-" + port);
+        thread.setDaemon(true);
+        thread.start();
+        awaitListening(port, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.networking.perf;
+
+import com.example.networking.startup.Engine;
+import com.example.networking.startup.LoopbackClient;
+import com.example.networking.startup.StartupCache;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PerfSuite is the performance regression check of the build (Maven profile perf).
+ * Every engine is started in its own JVM on an ephemeral loopback port and put through
+ * the same fixed scenarios, each for a bounded time and repeated for a few trials whose
+ * median is reported, since single runs of tail latency are noisy:
+ *   - throughput: closed-loop clients, one request in flight each, requests/s
+ *   - latency: one client sending at a fixed rate, p50 and p99 in microseconds. Latency
+ *     is measured from when a request was due, so a stalled server can't hide its stall
+ *     by delaying the requests behind it (coordinated omission).
+ * Results are written as JSON (with commit, JDK and machine details, to track trends
+ * across commits) and compared against a checked-in baseline. A baseline metric with a
+ * tolerance band is gated: a result outside its band in the bad direction is a regression,
+ * and any regression makes the suite exit with 1, which fails the build. A metric whose
+ * tolerance is null is only reported. p99 is noisier than the other metrics, so its band
+ * is the widest; tighten or null it in the baseline to suit the hardware.
+ *
+ * Absolute numbers depend on the machine, so the baseline is only meaningful for the
+ * kind of machine it was recorded on; regenerate it there with --update-baseline.
+ * They also depend on the JDK, so a baseline recorded on another feature release can't
+ * gate this run. That, or a missing baseline, fails the suite as well: a gate that
+ * silently stops gating is worse than none. --require-baseline=false turns it into a
+ * warning, for runs that only want the results.
+ *
+ * The ephemeral port is picked by binding port 0 and releasing it before the server
+ * starts, so another process could in theory grab it first.
+ *
+ * Usage: PerfSuite [--baseline file] [--results file] [--engines nio,vthread,...]
+ *                  [--seconds n] [--warmup n] [--trials n] [--update-baseline]
+ *                  [--require-baseline=false]                                    (run with --enable-preview)
+ * --update-baseline writes this run's results as the new baseline instead of failing.
+ */
+public class PerfSuite {
+    private static final int THROUGHPUT_CLIENTS = 8;
+    private static final int LATENCY_RATE = 2000; // Requests/s sent by the latency client
+    private static final long STARTUP_TIMEOUT_SECONDS = 30;
+    private static final long PHASE_GRACE_SECONDS = 15; // A server is killed if a scenario overruns by this much
+
+    // Default tolerance bands, copied into the baseline when it is written
+    private static final Double THROUGHPUT_TOLERANCE = 0.20; // Fail below 80% of the baseline
+    private static final Double P50_TOLERANCE = 0.50;        // Fail above 150%
+    private static final Double P99_TOLERANCE = 1.00;        // Fail above 200%
+
+    private enum Direction { HIGHER_IS_BETTER, LOWER_IS_BETTER }
+
+    private record Metric(String name, double value, String unit, Direction direction, Double tolerance) {}
+
+    public static void main(String[] args) throws Exception {
+        Path baselineFile = Path.of("src/perf/baseline.json");
+        Path resultsFile = Path.of("target/perf/results.json");
+        Engine[] engines = Engine.values();
+        int seconds = 5;
+        int warmup = 5;
+        int trials = 5;
+        boolean updateBaseline = false;
+        boolean requireBaseline = true;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--baseline" -> baselineFile = Path.of(args[++i]);
+                case "--results" -> resultsFile = Path.of(args[++i]);
+                case "--engines" -> engines = Engine.parse(args[++i]);
+                case "--seconds" -> seconds = Integer.parseInt(args[++i]);
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--trials" -> trials = Integer.parseInt(args[++i]);
+                case "--update-baseline", "--update-baseline=true" -> updateBaseline = true;
+                case "--update-baseline=false" -> updateBaseline = false;
+                case "--require-baseline", "--require-baseline=true" -> requireBaseline = true;
+                case "--require-baseline=false" -> requireBaseline = false;
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        List<Metric> metrics = new ArrayList<>();
+        for (Engine engine : engines) {
+            System.out.println("Running scenarios against " + engine.label() + "...");
+            metrics.addAll(runEngine(engine, warmup, seconds, trials));
+        }
+
+        String ungatedReason = null; // Why this run can't be compared, if it can't
+        Map<String, Object> baseline = Map.of();
+        if (!updateBaseline) {
+            ungatedReason = checkBaseline(baselineFile);
+            if (ungatedReason == null) {
+                baseline = metricsOf(Json.parse(Files.readString(baselineFile)));
+            }
+        }
+        Map<String, Object> results = new LinkedHashMap<>();
+        int regressions = compare(metrics, baseline, results);
+
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("commit", commitId());
+        document.put("timestamp", Instant.now().toString());
+        document.put("java", Runtime.version().toString());
+        document.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        document.put("cpus", (double) Runtime.getRuntime().availableProcessors());
+        Map<String, Object> scenario = new LinkedHashMap<>();
+        scenario.put("seconds", (double) seconds);
+        scenario.put("warmupSeconds", (double) warmup);
+        scenario.put("trials", (double) trials);
+        scenario.put("throughputClients", (double) THROUGHPUT_CLIENTS);
+        scenario.put("latencyRate", (double) LATENCY_RATE);
+        document.put("scenario", scenario);
+        document.put("baseline", updateBaseline || ungatedReason != null ? null : baselineFile.toString());
+        document.put("ungated", ungatedReason);
+        document.put("regressions", (double) regressions);
+        document.put("metrics", results);
+        write(resultsFile, Json.write(document));
+        System.out.println("Results written to " + resultsFile);
+
+        if (updateBaseline) {
+            write(baselineFile, Json.write(baselineDocument(metrics)));
+            System.out.println("Baseline written to " + baselineFile);
+        } else if (ungatedReason != null) {
+            System.out.println();
+            System.out.println("*** " + (requireBaseline ? "FAILED" : "WARNING") + ": results were NOT checked for regressions.");
+            System.out.println("*** " + ungatedReason);
+            System.out.println("*** Record a baseline on this JDK and machine with --update-baseline"
+                    + " (mvn -Pperf verify -Dperf.updateBaseline=true).");
+            if (requireBaseline) {
+                System.exit(1);
+            }
+        } else if (regressions > 0) {
+            System.out.println(regressions + " metric(s) regressed beyond their tolerance");
+            System.exit(1);
+        }
+    }
+
+    private static List<Metric> runEngine(Engine engine, int warmup, int seconds, int trials) throws Exception {
+        int port = freePort();
+        List<String> options = List.of("-Dnio.quiet=true", "-Dserver.quiet=true");
+        ProcessBuilder builder = new ProcessBuilder(StartupCache.javaCommand(options,
+                engine.mainClass().getName(), String.valueOf(port)));
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process server = builder.start();
+
+        // Bounds the whole run even if the server hangs: killing it unblocks the clients
+        long budgetSeconds = STARTUP_TIMEOUT_SECONDS + warmup + 2L * seconds * trials + PHASE_GRACE_SECONDS;
+        Thread watchdog = Thread.ofPlatform().daemon().start(() -> {
+            try {
+                if (!server.waitFor(budgetSeconds, TimeUnit.SECONDS)) {
+                    System.err.println(engine.label() + " overran its " + budgetSeconds + " s budget, killing it");
+                    server.destroyForcibly();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        try {
+            LoopbackClient.awaitFirstResponse(engine, port, System.nanoTime() + TimeUnit.SECONDS.toNanos(STARTUP_TIMEOUT_SECONDS));
+            throughput(engine, port, warmup); // Warmup, not recorded
+            double[] requestsPerSecond = new double[trials];
+            double[] p50 = new double[trials];
+            double[] p99 = new double[trials];
+            for (int t = 0; t < trials; t++) {
+                requestsPerSecond[t] = throughput(engine, port, seconds);
+                long[] latencies = latency(engine, port, seconds);
+                p50[t] = percentileMicros(latencies, 50);
+                p99[t] = percentileMicros(latencies, 99);
+            }
+            String prefix = engine.label() + ".";
+            return List.of(
+                    new Metric(prefix + "throughput.requestsPerSecond", Math.round(median(requestsPerSecond)), "requests/s",
+                            Direction.HIGHER_IS_BETTER, THROUGHPUT_TOLERANCE),
+                    new Metric(prefix + "latency.p50Micros", median(p50), "us",
+                            Direction.LOWER_IS_BETTER, P50_TOLERANCE),
+                    new Metric(prefix + "latency.p99Micros", median(p99), "us",
+                            Direction.LOWER_IS_BETTER, P99_TOLERANCE));
+        } finally {
+            server.toHandle().destroy();
+            if (!server.waitFor(10, TimeUnit.SECONDS)) {
+                server.destroyForcibly();
+            }
+            watchdog.interrupt();
+        }
+    }
+
+    /**
+     * Closed-loop clients for the given time; returns completed requests/s.
+     */
+    private static double throughput(Engine engine, int port, int seconds) throws InterruptedException, IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        LongAdder completed = new LongAdder();
+        LongAdder failed = new LongAdder();
+        Thread[] clients = new Thread[THROUGHPUT_CLIENTS];
+        long start = System.nanoTime();
+        for (int c = 0; c < clients.length; c++) {
+            final int n = c;
+            clients[c] = Thread.ofPlatform().start(() -> {
+                try (LoopbackClient client = LoopbackClient.connect(engine, port, "perf-" + n)) {
+                    while (System.nanoTime() < deadline) {
+                        client.roundTrip("perf throughput " + n);
+                        completed.increment();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Throughput client " + n + " failed: " + e.getMessage());
+                    failed.increment();
+                }
+            });
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        if (failed.sum() > 0) {
+            throw new IOException(failed.sum() + " throughput clients failed against " + engine.label());
+        }
+        return completed.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * One client sending LATENCY_RATE requests/s; returns each request's latency in
+     * nanoseconds from when it was due, sorted.
+     */
+    private static long[] latency(Engine engine, int port, int seconds) throws IOException {
+        int requests = LATENCY_RATE * seconds;
+        long interval = TimeUnit.SECONDS.toNanos(1) / LATENCY_RATE;
+        long[] latencies = new long[requests];
+        try (LoopbackClient client = LoopbackClient.connect(engine, port, "perf-latency")) {
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                long due = start + i * interval;
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                client.roundTrip("perf latency " + i);
+                latencies[i] = System.nanoTime() - due;
+            }
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static double percentileMicros(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percentile / 100.0) - 1);
+        return Math.round(sorted[Math.max(0, index)] / 100.0) / 10.0; // Microseconds, one decimal
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Checks every metric against its baseline band, prints a table and fills in the results map.
+     * @return number of regressions
+     */
+    private static int compare(List<Metric> metrics, Map<String, Object> baseline, Map<String, Object> results) {
+        int regressions = 0;
+        System.out.printf("%n%-40s %12s %12s %10s  %s%n", "metric", "value", "baseline", "change", "status");
+        for (Metric metric : metrics) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("value", metric.value());
+            entry.put("unit", metric.unit());
+            String status = "new";
+            String change = "";
+            String base = "";
+            if (baseline.get(metric.name()) instanceof Map<?, ?> band && band.get("value") instanceof Double expected) {
+                Double tolerance = band.containsKey("tolerance") ? (Double) band.get("tolerance") : metric.tolerance();
+                double ratio = expected == 0 ? 1 : metric.value() / expected;
+                boolean higherIsBetter = metric.direction() == Direction.HIGHER_IS_BETTER;
+                if (tolerance == null) {
+                    status = "info"; // Tracked, not gated
+                } else if (higherIsBetter ? ratio < 1 - tolerance : ratio > 1 + tolerance) {
+                    status = "REGRESSION";
+                    regressions++;
+                } else if (higherIsBetter ? ratio > 1 + tolerance : ratio < 1 - tolerance) {
+                    status = "improved"; // Consider refreshing the baseline
+                } else {
+                    status = "ok";
+                }
+                entry.put("baseline", expected);
+                entry.put("tolerance", tolerance);
+                change = String.format("%+.1f%%", (ratio - 1) * 100);
+                base = String.format("%.1f", expected);
+            }
+            entry.put("status", status);
+            results.put(metric.name(), entry);
+            System.out.printf("%-40s %12.1f %12s %10s  %s%n", metric.name(), metric.value(), base, change, status);
+        }
+        return regressions;
+    }
+
+    private static Map<String, Object> baselineDocument(List<Metric> metrics) {
+        Map<String, Object> bands = new LinkedHashMap<>();
+        for (Metric metric : metrics) {
+            Map<String, Object> band = new LinkedHashMap<>();
+            band.put("value", metric.value());
+            band.put("unit", metric.unit());
+            band.put("tolerance", metric.tolerance());
+            band.put("direction", metric.direction() == Direction.HIGHER_IS_BETTER ? "higher-is-better" : "lower-is-better");
+            bands.put(metric.name(), band);
+        }
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("commit", commitId());
+        document.put("java", Runtime.version().toString());
+        document.put("cpus", (double) Runtime.getRuntime().availableProcessors());
+        document.put("metrics", bands);
+        return document;
+    }
+
+    /**
+     * Returns why the baseline can't gate this run (missing, or recorded on another JDK
+     * feature release), or null if it can.
+     */
+    private static String checkBaseline(Path baselineFile) throws IOException {
+        if (!Files.exists(baselineFile)) {
+            return "There is no baseline at " + baselineFile + ".";
+        }
+        Object document = Json.parse(Files.readString(baselineFile));
+        int feature = Runtime.version().feature();
+        Object recordedOn = document instanceof Map<?, ?> map ? map.get("java") : null;
+        if (!(recordedOn instanceof String version) || Runtime.Version.parse(version).feature() != feature) {
+            return "Baseline " + baselineFile + " was recorded on JDK " + recordedOn + ", this is JDK " + feature + ".";
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> metricsOf(Object document) {
+        if (document instanceof Map<?, ?> map && map.get("metrics") instanceof Map<?, ?> metrics) {
+            return (Map<String, Object>) metrics;
+        }
+        throw new IllegalArgumentException("Baseline has no \"metrics\" object");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * The checked-out commit, from -Dperf.commit or git, or "unknown".
+     */
+    private static String commitId() {
+        String commit = System.getProperty("perf.commit");
+        if (commit != null) {
+            return commit;
+        }
+        try {
+            Process git = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+            String output = new String(git.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            return git.waitFor() == 0 && !output.isEmpty() ? output : "unknown";
+        } catch (IOException | InterruptedException e) {
+            return "unknown";
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.writeString(file, content);
+    }
+}
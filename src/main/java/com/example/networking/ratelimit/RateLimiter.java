@@ -0,0 +1,209 @@
+package com.example.networking.ratelimit;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * RateLimiter enforces per-source limits on messages/s and bytes/s, keyed by remote address.
+ *
+ * Each limit is a token bucket implemented as GCRA (generic cell rate algorithm): the bucket
+ * is a single "theoretical arrival time" (TAT) and a message conforms if, after charging its
+ * cost, the TAT is no further ahead of now than the burst allowance. Charging is one
+ * compare-and-set on a long, so checks never lock and never allocate.
+ *
+ * Entries live in a fixed-size open-addressed table. A source only ever probes a short
+ * window of slots starting at its hash, so unrelated sources rarely touch the same slot.
+ * When the window is full, the entry seen least recently is replaced, which evicts
+ * idle sources LRU-style without a background sweeper.
+ */
+public class RateLimiter {
+    private static final int PROBE_WINDOW = 8; // Slots a source may occupy, starting at its hash
+
+    private static final VarHandle MESSAGE_TAT;
+    private static final VarHandle BYTE_TAT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MESSAGE_TAT = lookup.findVarHandle(Entry.class, "messageTat", long.class);
+            BYTE_TAT = lookup.findVarHandle(Entry.class, "byteTat", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Bucket state of one source address.
+     */
+    static final class Entry {
+        final InetAddress address;
+        volatile long messageTat;
+        volatile long byteTat;
+        long lastSeen; // Eviction hint only, racy updates are harmless
+
+        Entry(InetAddress address, long now) {
+            this.address = address;
+            this.messageTat = now;
+            this.byteTat = now;
+            this.lastSeen = now;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final long messagesPerSecond;
+    private final long bytesPerSecond;
+    private final long nanosPerMessage;
+    private final long burstNanos; // How far ahead of now a bucket may run, i.e. the burst allowance
+
+    /**
+     * @param messagesPerSecond sustained message rate per source, 0 for unlimited
+     * @param bytesPerSecond sustained byte rate per source, 0 for unlimited
+     * @param burstMillis burst allowance, expressed as time at the sustained rate
+     * @param capacity number of tracked sources, rounded up to a power of two
+     */
+    public RateLimiter(long messagesPerSecond, long bytesPerSecond, long burstMillis, int capacity) {
+        int size = Integer.highestOneBit(Math.max(PROBE_WINDOW, capacity - 1)) << 1;
+        this.table = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.messagesPerSecond = messagesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.nanosPerMessage = messagesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / messagesPerSecond : 0;
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(burstMillis);
+    }
+
+    /**
+     * Builds a limiter from -Dratelimit.messagesPerSecond, -Dratelimit.bytesPerSecond,
+     * -Dratelimit.burstMillis (default 1000) and -Dratelimit.capacity (default 65536).
+     * @return the limiter, or null when neither rate is set so servers skip the check entirely.
+     */
+    public static RateLimiter fromSystemProperties() {
+        long messages = Long.getLong("ratelimit.messagesPerSecond", 0);
+        long bytes = Long.getLong("ratelimit.bytesPerSecond", 0);
+        if (messages <= 0 && bytes <= 0) {
+            return null;
+        }
+        return new RateLimiter(messages, bytes,
+                Long.getLong("ratelimit.burstMillis", 1000), Integer.getInteger("ratelimit.capacity", 65536));
+    }
+
+    /**
+     * Charges one message of the given size to the source.
+     * @return 0 if the message is within the limits, otherwise the nanoseconds until the
+     *         source conforms again. A rejected message is not charged.
+     */
+    public long acquire(InetAddress address, int bytes) {
+        return acquire(address, bytes, System.nanoTime());
+    }
+
+    /**
+     * Same as {@link #acquire(InetAddress, int)} with a caller-supplied System.nanoTime() value.
+     * Reading the clock can cost as much as the check itself, so event loops should read it
+     * once per batch of ready channels and pass it in.
+     */
+    public long acquire(InetAddress address, int bytes, long now) {
+        Entry entry = entryFor(address, now);
+
+        if (messagesPerSecond > 0) {
+            long wait = charge(entry, MESSAGE_TAT, nanosPerMessage, now, false);
+            if (wait > 0) {
+                return wait;
+            }
+        }
+        if (bytesPerSecond > 0) {
+            long wait = charge(entry, BYTE_TAT, bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond, now, false);
+            if (wait > 0) {
+                return wait; // The message charge stays, slightly favouring the byte limit is fine
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Charges one message of the given size to the source even when it is over the limit.
+     * For TCP servers, which cannot drop a message they have already read and serve it anyway:
+     * pausing for the returned debt before the next read keeps the source at the configured rate.
+     * @return 0 if the message was within the limits, otherwise the nanoseconds until the source conforms again
+     */
+    public long consume(InetAddress address, int bytes) {
+        return consume(address, bytes, System.nanoTime());
+    }
+
+    /**
+     * Same as {@link #consume(InetAddress, int)} with a caller-supplied System.nanoTime() value.
+     */
+    public long consume(InetAddress address, int bytes, long now) {
+        Entry entry = entryFor(address, now);
+        long debt = 0;
+        if (messagesPerSecond > 0) {
+            debt = charge(entry, MESSAGE_TAT, nanosPerMessage, now, true);
+        }
+        if (bytesPerSecond > 0) {
+            debt = Math.max(debt, charge(entry, BYTE_TAT, bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond, now, true));
+        }
+        return debt;
+    }
+
+    /**
+     * GCRA step on one bucket: advance the TAT by cost unless that puts it beyond the burst
+     * allowance, or regardless when forced.
+     * @return how far beyond the burst allowance the TAT is, 0 if within it
+     */
+    private long charge(Entry entry, VarHandle tatHandle, long cost, long now, boolean force) {
+        while (true) {
+            long tat = (long) tatHandle.getVolatile(entry);
+            long newTat = Math.max(tat, now) + cost;
+            long ahead = newTat - now - burstNanos;
+            if (ahead > 0 && !force) {
+                return ahead;
+            }
+            if (tatHandle.compareAndSet(entry, tat, newTat)) {
+                return Math.max(ahead, 0);
+            }
+        }
+    }
+
+    private Entry entryFor(InetAddress address, long now) {
+        int start = spread(address.hashCode()) & mask;
+        int victim = -1;
+        long victimLastSeen = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int slot = (start + i) & mask;
+            Entry entry = table.get(slot);
+            if (entry == null) {
+                // Free slot: claim it, or retry the lookup if another thread just did
+                Entry created = new Entry(address, now);
+                if (table.compareAndSet(slot, null, created)) {
+                    return created;
+                }
+                return entryFor(address, now);
+            }
+            if (entry.address.equals(address)) {
+                entry.lastSeen = now;
+                return entry;
+            }
+            if (entry.lastSeen < victimLastSeen) {
+                victim = slot;
+                victimLastSeen = entry.lastSeen;
+            }
+        }
+        // Window full: replace the least recently seen source. If another thread replaced it
+        // first, this call still gets a fresh (unlimited) entry, which only errs towards letting traffic in.
+        Entry created = new Entry(address, now);
+        Entry old = table.get(victim);
+        if (old != null && old.lastSeen == victimLastSeen) {
+            table.compareAndSet(victim, old, created);
+        }
+        return created;
+    }
+
+    private static int spread(int hash) {
+        // Mix the bits so neighbouring addresses (e.g. 10.0.0.1, 10.0.0.2) land in different windows
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+}
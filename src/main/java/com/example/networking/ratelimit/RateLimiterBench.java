@@ -0,0 +1,70 @@
+package com.example.networking.ratelimit;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RateLimiterBench measures the cost of RateLimiter.acquire on the message path:
+ * nanoseconds per check and checks per second, single-threaded and with several
+ * threads hitting the table at once. Limits are set high enough that every call
+ * conforms, which is the common case the servers pay for on each message.
+ *
+ * Usage: RateLimiterBench [sources] [threads] [seconds]
+ */
+public class RateLimiterBench {
+    public static void main(String[] args) throws Exception {
+        int sources = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        InetAddress[] addresses = new InetAddress[sources];
+        for (int i = 0; i < sources; i++) {
+            addresses[i] = addressOf(i);
+        }
+        RateLimiter limiter = new RateLimiter(1_000_000_000L, 1_000_000_000_000L, 1000, sources * 2);
+
+        run("warmup", limiter, addresses, 1, 2);
+        run("1 thread", limiter, addresses, 1, seconds);
+        run(threads + " threads", limiter, addresses, threads, seconds);
+    }
+
+    private static void run(String label, RateLimiter limiter, InetAddress[] addresses, int threads, int seconds)
+            throws InterruptedException {
+        LongAdder calls = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * 7919;
+            workers[t] = new Thread(() -> {
+                long n = 0;
+                long denied = 0;
+                int i = offset;
+                long now = System.nanoTime();
+                while ((n & 0xFFF) != 0 || now < end) {
+                    if ((n & 0x3F) == 0) {
+                        now = System.nanoTime(); // Like an event loop: one clock read per batch of 64 messages
+                    }
+                    if (limiter.acquire(addresses[i++ % addresses.length], 64, now) > 0) {
+                        denied++;
+                    }
+                    n++;
+                }
+                calls.add(n);
+                rejected.add(denied);
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double perSecond = calls.sum() / (double) seconds;
+        System.out.printf("%-12s %,15.0f checks/s %8.1f ns/check per thread (%d rejected)%n",
+                label, perSecond, threads * 1e9 / perSecond, rejected.sum());
+    }
+
+    private static InetAddress addressOf(int i) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] { 10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i });
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.networking.startup;
+
+import com.example.networking.tcp.server.BlockingServer;
+import com.example.networking.tcp.server.BlockingServerVThread;
+import com.example.networking.tcp.server.NIOMultiThreadedServer;
+import com.example.networking.tcp.server.NIOServer;
+import com.example.networking.udp.ChatServerTLS;
+
+/**
+ * The servers covered by the training run, the startup bench and the perf suite, each
+ * with a default loopback port of its own so they can run side by side in one JVM.
+ */
+public enum Engine {
+    NIO("nio", NIOServer.class, 12450, false),
+    VTHREAD("vthread", BlockingServerVThread.class, 12451, false),
+    CHAT("chat", ChatServerTLS.class, 12452, true),
+    NIO_WORKERS("nio-workers", NIOMultiThreadedServer.class, 12453, false),
+    BLOCKING("blocking", BlockingServer.class, 12454, false);
+
+    /**
+     * A server's static main method.
+     */
+    interface Main {
+        void run(String[] args) throws Exception;
+    }
+
+    private final String label;
+    private final Class<?> mainClass;
+    private final int port;
+    private final boolean tls; // Chat protocol over TLS instead of the plain line protocol
+
+    Engine(String label, Class<?> mainClass, int port, boolean tls) {
+        this.label = label;
+        this.mainClass = mainClass;
+        this.port = port;
+        this.tls = tls;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    public Class<?> mainClass() {
+        return mainClass;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public boolean tls() {
+        return tls;
+    }
+
+    /**
+     * The server's main method. Every engine takes its port as the first argument.
+     */
+    Main main() {
+        return switch (this) {
+            case NIO -> NIOServer::main;
+            case VTHREAD -> BlockingServerVThread::main;
+            case CHAT -> ChatServerTLS::main;
+            case NIO_WORKERS -> NIOMultiThreadedServer::main;
+            case BLOCKING -> BlockingServer::main;
+        };
+    }
+
+    /**
+     * Parses a comma separated list of labels, e.g. "nio,chat"; "all" selects every engine.
+     */
+    public static Engine[] parse(String list) {
+        if (list.equals("all")) {
+            return values();
+        }
+        String[] labels = list.split(",");
+        Engine[] engines = new Engine[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            engines[i] = fromLabel(labels[i].trim());
+        }
+        return engines;
+    }
+
+    private static Engine fromLabel(String label) {
+        for (Engine engine : values()) {
+            if (engine.label.equals(label)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown engine: " + label);
+    }
+}
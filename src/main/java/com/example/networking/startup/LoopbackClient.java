@@ -0,0 +1,120 @@
+package com.example.networking.startup;
+
+import com.example.networking.udp.ChatClientTLS;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * LoopbackClient sends one line to an engine on 127.0.0.1 and waits for the answer.
+ * For the line-protocol servers that is the server's response. For the chat server
+ * the client subscribes to a room of its own and leaves the lobby, so every line it
+ * publishes comes straight back to it and nobody else.
+ */
+public class LoopbackClient implements Closeable {
+    private final Engine engine;
+    private final Socket socket;
+    private final PrintWriter out;
+    private final BufferedReader in;
+
+    private LoopbackClient(Engine engine, Socket socket) throws IOException {
+        this.engine = engine;
+        this.socket = socket;
+        this.out = new PrintWriter(socket.getOutputStream(), true);
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    }
+
+    public static LoopbackClient connect(Engine engine, String name) throws IOException {
+        return connect(engine, engine.port(), name);
+    }
+
+    /**
+     * Connects to an engine listening on another port than its default one.
+     */
+    public static LoopbackClient connect(Engine engine, int port, String name) throws IOException {
+        Socket socket;
+        if (engine.tls()) {
+            try {
+                socket = ChatClientTLS.createSSLContext().getSocketFactory().createSocket();
+            } catch (Exception e) {
+                throw new IOException("Could not create TLS context", e);
+            }
+        } else {
+            socket = new Socket();
+        }
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("127.0.0.1", port), 5000);
+            LoopbackClient client = new LoopbackClient(engine, socket);
+            if (engine.tls()) {
+                client.expect("/subscribe " + name, "Subscribed to ");
+                client.expect("/unsubscribe lobby", "Unsubscribed from ");
+            }
+            return client;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Retries connecting and one round trip until the engine answers, e.g. while it starts up.
+     * @throws IOException if it hasn't answered by the deadline (System.nanoTime() based)
+     */
+    public static void awaitFirstResponse(Engine engine, long deadlineNanos) throws IOException, InterruptedException {
+        awaitFirstResponse(engine, engine.port(), deadlineNanos);
+    }
+
+    public static void awaitFirstResponse(Engine engine, int port, long deadlineNanos) throws IOException, InterruptedException {
+        while (true) {
+            try (LoopbackClient client = connect(engine, port, "probe")) {
+                client.roundTrip("ping");
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadlineNanos) {
+                    throw new IOException(engine.label() + " did not answer on port " + port, e);
+                }
+                Thread.sleep(2);
+            }
+        }
+    }
+
+    /**
+     * Sends one line and returns the line that comes back.
+     */
+    public String roundTrip(String message) throws IOException {
+        out.println(message);
+        String response = in.readLine();
+        if (response == null) {
+            throw new IOException("Connection closed by " + engine.label());
+        }
+        return response;
+    }
+
+    /**
+     * Ends the session the way a well-behaved client does ("bye" on the line protocol), then closes.
+     */
+    public void hangUp() throws IOException {
+        if (!engine.tls()) {
+            roundTrip("bye");
+        }
+        close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void expect(String command, String prefix) throws IOException {
+        String response = roundTrip(command);
+        if (!response.startsWith(prefix)) {
+            throw new IOException("Unexpected answer to " + command + ": " + response);
+        }
+    }
+}
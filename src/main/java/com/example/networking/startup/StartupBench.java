@@ -0,0 +1,146 @@
+package com.example.networking.startup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * StartupBench starts each engine in a fresh JVM, with and without the startup cache,
+ * and measures from the moment the process is launched:
+ *   - time to first response: until a LoopbackClient gets its first answer
+ *   - time to peak throughput: until closed-loop clients first sustain 90% of the peak
+ *     rate of that run (rates over a sliding 500 ms window)
+ *   - the peak itself, in requests/s
+ * Each figure is the median over several runs. The cache is built with StartupCache
+ * first if the file doesn't exist. Run from the packaged jar, since classes loaded from
+ * a directory are never cached.
+ *
+ * Usage: StartupBench [engines, e.g. nio,vthread,chat] [secondsPerRun] [clients] [runs] [cacheFile]
+ *        (run with --enable-preview)
+ */
+public class StartupBench {
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int SMOOTHING_WINDOWS = 5; // Rates are averaged over this many windows
+    private static final double PEAK_FRACTION = 0.9;
+
+    private record Result(double firstResponseMillis, double peakMillis, double peakRate) {}
+
+    public static void main(String[] args) throws Exception {
+        Engine[] engines = Engine.parse(args.length > 0 ? args[0] : "all");
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        Path cache = Path.of(args.length > 4 ? args[4] : StartupCache.defaultFile());
+        if (!Files.exists(cache)) {
+            StartupCache.create(cache, 10);
+        }
+
+        List<String> cached = new ArrayList<>(StartupCache.launchOptions(cache));
+        cached.add(StartupCache.requireCacheOption()); // Fail loudly rather than measure an uncached start
+        System.out.printf("%-9s %-10s %18s %18s %14s%n", "engine", "cache", "first resp (ms)", "90% peak (ms)", "peak req/s");
+        for (Engine engine : engines) {
+            report(engine, "none", measure(engine, List.of(), seconds, clients, runs));
+            report(engine, cache.getFileName().toString(), measure(engine, cached, seconds, clients, runs));
+        }
+    }
+
+    private static void report(Engine engine, String cache, Result result) {
+        System.out.printf("%-9s %-10s %18.0f %18.0f %14.0f%n", engine.label(), cache,
+                result.firstResponseMillis(), result.peakMillis(), result.peakRate());
+    }
+
+    private static Result measure(Engine engine, List<String> cacheOptions, int seconds, int clients, int runs)
+            throws Exception {
+        double[] first = new double[runs];
+        double[] peak = new double[runs];
+        double[] rate = new double[runs];
+        for (int r = 0; r < runs; r++) {
+            Result result = run(engine, cacheOptions, seconds, clients);
+            first[r] = result.firstResponseMillis();
+            peak[r] = result.peakMillis();
+            rate[r] = result.peakRate();
+        }
+        return new Result(median(first), median(peak), median(rate));
+    }
+
+    private static Result run(Engine engine, List<String> cacheOptions, int seconds, int clients) throws Exception {
+        List<String> options = new ArrayList<>(cacheOptions);
+        options.add("-Dnio.quiet=true");
+        options.add("-Dserver.quiet=true");
+        ProcessBuilder builder = new ProcessBuilder(StartupCache.javaCommand(options,
+                engine.mainClass().getName(), String.valueOf(engine.port())));
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT); // A rejected cache shows up here
+
+        long launched = System.nanoTime();
+        Process server = builder.start();
+        try {
+            LoopbackClient.awaitFirstResponse(engine, launched + TimeUnit.SECONDS.toNanos(30));
+            long firstResponse = System.nanoTime() - launched;
+
+            // Completed requests per window since launch, filled in by the clients
+            int windows = (int) ((firstResponse + TimeUnit.SECONDS.toNanos(seconds)) / WINDOW_NANOS) + 1;
+            AtomicLongArray completed = new AtomicLongArray(windows);
+            long deadline = launched + windows * WINDOW_NANOS;
+            Thread[] threads = new Thread[clients];
+            for (int c = 0; c < clients; c++) {
+                final int n = c;
+                threads[c] = Thread.ofPlatform().start(() -> {
+                    try (LoopbackClient client = LoopbackClient.connect(engine, "bench-" + n)) {
+                        long now;
+                        while ((now = System.nanoTime()) < deadline) {
+                            client.roundTrip("startup bench " + n);
+                            completed.incrementAndGet((int) ((now - launched) / WINDOW_NANOS));
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Client " + n + " failed: " + e.getMessage());
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return summarize(completed, firstResponse);
+        } finally {
+            server.toHandle().destroy();
+            server.waitFor(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Finds the peak smoothed rate and the first window in which 90% of it was reached.
+     */
+    private static Result summarize(AtomicLongArray completed, long firstResponse) {
+        int firstWindow = (int) (firstResponse / WINDOW_NANOS) + 1; // The first full window with load on it
+        int windows = completed.length() - 1; // The last window is cut short by the deadline
+        double[] rates = new double[windows];
+        double peakRate = 0;
+        for (int w = firstWindow + SMOOTHING_WINDOWS - 1; w < windows; w++) {
+            long sum = 0;
+            for (int i = w - SMOOTHING_WINDOWS + 1; i <= w; i++) {
+                sum += completed.get(i);
+            }
+            rates[w] = sum / (SMOOTHING_WINDOWS * WINDOW_NANOS / 1e9);
+            peakRate = Math.max(peakRate, rates[w]);
+        }
+        double peakMillis = 0;
+        for (int w = firstWindow + SMOOTHING_WINDOWS - 1; w < windows; w++) {
+            if (rates[w] >= PEAK_FRACTION * peakRate) {
+                peakMillis = (w + 1) * WINDOW_NANOS / 1e6; // End of the window that got there
+                break;
+            }
+        }
+        return new Result(firstResponse / 1e6, peakMillis, peakRate);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.networking.startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StartupCache builds the cache that lets a server JVM skip most of its class loading
+ * and linking at startup, by recording TrainingRun in a child JVM:
+ *   - JDK 24+: an AOT cache (JEP 483). A record run writes the AOT configuration,
+ *     then -XX:AOTMode=create turns it into the cache. Start with -XX:AOTCache=file.
+ *   - older JDKs: a dynamic AppCDS archive written at exit with -XX:ArchiveClassesAtExit.
+ *     Start with -XX:SharedArchiveFile=file.
+ * The cache is only used by a JVM of the same version started with the same class path,
+ * so the training JVM uses this process's java and class path. Application classes are
+ * only cached when loaded from a jar, so run this from the packaged jar, not target/classes.
+ * launchOptions() gives the matching options for starting a server with the cache.
+ *
+ * Usage: StartupCache [cacheFile] [secondsPerEngine]    (run with --enable-preview)
+ * The Maven profile aot-train runs this; the profile aot starts a server with the result.
+ */
+public class StartupCache {
+    // Both the training and the cached runs need it, as the JVM refuses a cache built with different preview settings
+    static final String ENABLE_PREVIEW = "--enable-preview";
+
+    public static void main(String[] args) throws Exception {
+        Path cache = Path.of(args.length > 0 ? args[0] : defaultFile());
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        create(cache, seconds);
+        System.out.println("Start a server with the cache using: " + String.join(" ", launchOptions(cache)));
+    }
+
+    /**
+     * True if this JVM supports AOT caches, otherwise the AppCDS archive is used.
+     */
+    public static boolean aotCacheSupported() {
+        return Runtime.version().feature() >= 24;
+    }
+
+    public static String defaultFile() {
+        return aotCacheSupported() ? "target/io.aot" : "target/io.jsa";
+    }
+
+    /**
+     * JVM options that start a server with the given cache.
+     */
+    public static List<String> launchOptions(Path cache) {
+        return List.of(aotCacheSupported() ? "-XX:AOTCache=" + cache : "-XX:SharedArchiveFile=" + cache);
+    }
+
+    /**
+     * Option that makes a JVM fail at startup instead of silently running without the cache,
+     * e.g. because it was built by another JDK or for another class path.
+     */
+    public static String requireCacheOption() {
+        return aotCacheSupported() ? "-XX:AOTMode=on" : "-Xshare:on";
+    }
+
+    /**
+     * Records a training run and writes the cache file, replacing an existing one.
+     */
+    public static void create(Path cache, int secondsPerEngine) throws IOException, InterruptedException {
+        Path parent = cache.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.deleteIfExists(cache);
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (Files.isDirectory(Path.of(entry))) {
+                System.out.println("Warning: classes in directory " + entry + " can't be cached, use a jar");
+            }
+        }
+        String trainingArgs = String.valueOf(secondsPerEngine);
+        if (aotCacheSupported()) {
+            Path configuration = parent.resolve(cache.getFileName() + "conf");
+            run(List.of("-XX:AOTMode=record", "-XX:AOTConfiguration=" + configuration), TrainingRun.class.getName(), trainingArgs);
+            run(List.of("-XX:AOTMode=create", "-XX:AOTConfiguration=" + configuration, "-XX:AOTCache=" + cache), null, null);
+            Files.deleteIfExists(configuration);
+        } else {
+            run(List.of("-XX:ArchiveClassesAtExit=" + cache), TrainingRun.class.getName(), trainingArgs);
+        }
+        if (!Files.exists(cache)) {
+            throw new IOException("The JVM did not write " + cache + ", see its output above");
+        }
+        System.out.printf("Wrote %s (%,d KB)%n", cache, Files.size(cache) / 1024);
+    }
+
+    /**
+     * Command line for a child JVM with this process's java and class path.
+     */
+    public static List<String> javaCommand(List<String> options, String mainClass, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(options);
+        command.add(ENABLE_PREVIEW);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        if (mainClass != null) {
+            command.add(mainClass);
+            command.addAll(List.of(args));
+        }
+        return command;
+    }
+
+    private static void run(List<String> options, String mainClass, String arg) throws IOException, InterruptedException {
+        List<String> command = arg == null ? javaCommand(options, mainClass) : javaCommand(options, mainClass, arg);
+        System.out.println("Running " + String.join(" ", command));
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        int exit = process.waitFor();
+        if (exit != 0) {
+            throw new IOException("Training JVM exited with " + exit);
+        }
+    }
+}
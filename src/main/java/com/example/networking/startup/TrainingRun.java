@@ -0,0 +1,75 @@
+package com.example.networking.startup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TrainingRun is the workload recorded into the startup cache (see StartupCache).
+ * It starts every engine in this JVM and drives each one through LoopbackClient for
+ * a while: several concurrent clients, short and long lines, and regular reconnects
+ * so that accept, handshake (for TLS) and hang-up paths are exercised along with
+ * the request path. The classes loaded, linked and profiled during this run are what
+ * the JVM can later take from the cache instead of doing the work again at startup.
+ *
+ * Usage: TrainingRun [secondsPerEngine] [engines, e.g. nio,vthread,chat]    (run with --enable-preview)
+ */
+public class TrainingRun {
+    private static final int CLIENTS = 4;
+    private static final int REQUESTS_PER_CONNECTION = 200;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Engine[] engines = args.length > 1 ? Engine.parse(args[1]) : Engine.values();
+        // Before any server class is initialized: per-message logging would dominate the run
+        System.setProperty("nio.quiet", "true");
+        System.setProperty("server.quiet", "true");
+
+        for (Engine engine : engines) {
+            Thread.ofPlatform().daemon().name("train-" + engine.label()).start(() -> {
+                try {
+                    engine.main().run(new String[] { String.valueOf(engine.port()) });
+                } catch (Exception e) {
+                    System.err.println(engine.label() + " failed: " + e);
+                }
+            });
+            LoopbackClient.awaitFirstResponse(engine, System.nanoTime() + TimeUnit.SECONDS.toNanos(30));
+            long requests = drive(engine, seconds);
+            System.out.printf("Trained %-8s %,d requests in %d s%n", engine.label(), requests, seconds);
+        }
+        // Servers like ChatServerTLS never return from main. Exiting is also what makes the
+        // JVM write the training data (-XX:AOTMode=record or -XX:ArchiveClassesAtExit).
+        System.exit(0);
+    }
+
+    private static long drive(Engine engine, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        LongAdder requests = new LongAdder();
+        Thread[] clients = new Thread[CLIENTS];
+        for (int c = 0; c < CLIENTS; c++) {
+            final int n = c;
+            clients[c] = Thread.ofPlatform().start(() -> {
+                StringBuilder message = new StringBuilder();
+                int session = 0;
+                while (System.nanoTime() < deadline) {
+                    try (LoopbackClient client = LoopbackClient.connect(engine, "train-" + n + "-" + session++)) {
+                        for (int i = 0; i < REQUESTS_PER_CONNECTION && System.nanoTime() < deadline; i++) {
+                            message.setLength(0);
+                            message.append("training message ").append(i).append(' ');
+                            message.append("x".repeat(i % 64)); // Vary the line length
+                            client.roundTrip(message.toString());
+                            requests.increment();
+                        }
+                        client.hangUp();
+                    } catch (IOException e) {
+                        System.err.println("Training client " + n + " on " + engine.label() + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return requests.sum();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.networking.tcp.client;
+
+import com.example.networking.tcp.server.AcceptorGroup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AcceptBench measures how fast an AcceptorGroup accepts a burst of connections.
+ * For each acceptor count it starts a group on loopback whose handoff simply closes
+ * the socket, then opens the given number of connections from many concurrent
+ * connector threads. It reports accepts/s, connect-time percentiles (a SYN dropped
+ * from a full backlog shows up as a connect of a second or more) and failures.
+ *
+ * Client sockets bind to 127.0.0.2-127.0.0.17 so a burst is not limited by the
+ * ephemeral port range of a single source address.
+ *
+ * Usage: AcceptBench [connections] [connectorThreads] [backlog] [acceptorCounts, e.g. 1,2,4]
+ */
+public class AcceptBench {
+    private static final int PORT = 12410;
+    private static final int SOURCE_ADDRESSES = 16;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int connectors = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int backlog = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+        int[] acceptorCounts = args.length > 3
+                ? Arrays.stream(args[3].split(",")).mapToInt(Integer::parseInt).toArray()
+                : new int[] { 1, 2, 4 };
+
+        System.out.printf("%-10s %12s %12s %12s %12s %10s%n", "acceptors", "accepts/s", "p50 (us)", "p99 (us)", "max (us)", "failed");
+        for (int acceptors : acceptorCounts) {
+            AcceptorGroup.Config config = new AcceptorGroup.Config(PORT, acceptors, backlog, true, 0, 0, false);
+            AcceptorGroup group = new AcceptorGroup(config, AcceptBench::closeQuietly);
+            group.start();
+            try {
+                burst(acceptors, group, connections, connectors);
+            } finally {
+                group.stop();
+                group.join();
+            }
+        }
+    }
+
+    private static void burst(int acceptors, AcceptorGroup group, int connections, int connectors) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        LongAdder failed = new LongAdder();
+        long[] connectNanos = new long[connections];
+        long baseline = group.acceptedCount();
+        long start = System.nanoTime();
+
+        Thread[] threads = new Thread[connectors];
+        for (int t = 0; t < connectors; t++) {
+            threads[t] = Thread.ofPlatform().name("connector-" + t).start(() -> {
+                int n;
+                while ((n = next.getAndIncrement()) < connections) {
+                    long begin = System.nanoTime();
+                    try (Socket socket = new Socket()) {
+                        socket.bind(new InetSocketAddress("127.0.0." + (2 + n % SOURCE_ADDRESSES), 0));
+                        socket.connect(new InetSocketAddress("127.0.0.1", PORT), 10_000);
+                        connectNanos[n] = System.nanoTime() - begin;
+                    } catch (IOException e) {
+                        failed.increment();
+                        connectNanos[n] = -1;
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // Connect returns once the handshake completes; wait for the acceptors to drain their queues
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        long expected = connections - failed.sum();
+        while (group.acceptedCount() - baseline < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] sorted = Arrays.stream(connectNanos).filter(v -> v >= 0).sorted().toArray();
+        if (sorted.length == 0) {
+            System.out.printf("%-10d %12s %10d%n", acceptors, "all failed", failed.sum());
+            return;
+        }
+        System.out.printf("%-10d %12.0f %12.1f %12.1f %12.1f %10d%n", acceptors,
+                (group.acceptedCount() - baseline) / seconds,
+                sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3,
+                sorted[sorted.length - 1] / 1e3, failed.sum());
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -1,58 +1,123 @@
 package com.example.networking.tcp.client;
 
+import com.example.networking.ratelimit.RateLimiter;
+import com.example.networking.trace.StageTracer;
+import com.example.networking.trace.StageTracer.Stage;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ClientHandler implements Runnable to be executed by a thread from the server's
  * thread pool. Each instance handles communication with a single connected client.
  */
 public class ClientHandler implements Runnable {
+    // Per-source limits shared by all handlers; null (no check at all) unless -Dratelimit.* is set
+    private static final RateLimiter RATE_LIMITER = RateLimiter.fromSystemProperties();
+    // Per-message logging; disable with -Dserver.quiet=true when benchmarking
+    private static final boolean VERBOSE = !Boolean.getBoolean("server.quiet");
+    // Per-stage latency tracing of sampled requests; null unless -Dtrace.sampleEvery is set
+    private static final StageTracer TRACER = StageTracer.fromSystemProperties();
+
     private Socket clientSocket; // The socket connected to the client
+    private final long createdAt; // When the server handed the connection over, only taken when tracing
 
     public ClientHandler(Socket socket) {
         this.clientSocket = socket;
+        this.createdAt = TRACER != null ? System.nanoTime() : 0;
     }
 
     @Override
     public void run() {
         try (
             // Get input and output streams for communication with the client
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true); // 'true' for auto-flush
         ) {
             String clientMessage;
+            // A sampled request is traced from the moment the handler starts waiting for it.
+            // The first one also covers the time the connection waited for a pool thread.
+            StageTracer.Trace trace = TRACER != null ? TRACER.begin(createdAt) : null;
+            if (trace != null) {
+                trace.mark(Stage.QUEUE);
+                trace.label(clientSocket.getInetAddress().getHostAddress());
+            }
             // Read messages from the client until the client closes the connection
             // or sends a specific termination message.
             while ((clientMessage = in.readLine()) != null) {
-                System.out.println("Received from client " + clientSocket.getInetAddress().getHostAddress() + ": " + clientMessage);
+                if (RATE_LIMITER != null) {
+                    // Over the limit: stop reading for a while. The socket buffers fill up and
+                    // TCP flow control slows the client down without affecting anyone else.
+                    // The line has been read and will be answered, so it is charged either way.
+                    long waitNanos = RATE_LIMITER.consume(clientSocket.getInetAddress(),
+                            clientMessage.getBytes(StandardCharsets.UTF_8).length + 1); // Bytes on the wire, plus the newline
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+                if (trace != null) {
+                    trace.mark(Stage.WAIT); // Blocked in readLine(), plus any rate limit pause
+                }
+                if (VERBOSE) {
+                    System.out.println("Received from client " + clientSocket.getInetAddress().getHostAddress() + ": " + clientMessage);
+                }
 
-                // Process the message (e.g., convert to uppercase, add a timestamp)
-                String responseMessage = "SERVER RESPONSE: " + clientMessage.toUpperCase() + " (Processed at " + System.currentTimeMillis() + ")";
+                String responseMessage = processMessage(clientMessage);
+                if (trace != null) {
+                    trace.mark(Stage.HANDLER);
+                }
 
                 // Send the response back to the client
                 out.println(responseMessage);
+                if (trace != null) {
+                    trace.mark(Stage.FLUSH);
+                    TRACER.finish(trace);
+                }
 
                 // If the client sends "bye", break the loop and close the connection
                 if ("bye".equalsIgnoreCase(clientMessage.trim())) {
-                    System.out.println("Client " + clientSocket.getInetAddress().getHostAddress() + " sent 'bye'. Closing connection.");
+                    if (VERBOSE) {
+                        System.out.println("Client " + clientSocket.getInetAddress().getHostAddress() + " sent 'bye'. Closing connection.");
+                    }
                     break;
                 }
+                if (TRACER != null) {
+                    trace = TRACER.begin();
+                    if (trace != null) {
+                        trace.label(clientSocket.getInetAddress().getHostAddress());
+                    }
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Server is shutting down
         } catch (IOException e) {
             System.err.println("Error handling client " + clientSocket.getInetAddress().getHostAddress() + ": " + e.getMessage());
         } finally {
             try {
                 if (clientSocket != null && !clientSocket.isClosed()) {
                     clientSocket.close(); // Ensure the client socket is closed
-                    System.out.println("Client " + clientSocket.getInetAddress().getHostAddress() + " disconnected.");
+                    if (VERBOSE) {
+                        System.out.println("Client " + clientSocket.getInetAddress().getHostAddress() + " disconnected.");
+                    }
                 }
             } catch (IOException e) {
                 System.err.println("Error closing client socket: " + e.getMessage());
             }
         }
     }
+
+    /**
+     * Processes one message and returns the response line.
+     * Subclasses can override this to change how requests are served.
+     * @throws InterruptedException if the handler is interrupted, e.g. because the server is shutting down
+     */
+    protected String processMessage(String clientMessage) throws InterruptedException {
+        // Process the message (e.g., convert to uppercase, add a timestamp)
+        return "SERVER RESPONSE: " + clientMessage.toUpperCase() + " (Processed at " + System.currentTimeMillis() + ")";
+    }
 }
\ No newline at end of file
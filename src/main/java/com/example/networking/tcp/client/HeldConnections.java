@@ -0,0 +1,103 @@
+package com.example.networking.tcp.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HeldConnections is the client side of the connection footprint benches. Run as a
+ * child process, it opens the given number of connections, completes one request on
+ * each, prints a "READY ..." line and keeps them open until its stdin is closed.
+ * Keeping the clients in their own JVM stops them from distorting the server's memory numbers.
+ *
+ * Connections are spread over the source addresses 127.0.0.2-127.0.0.17 to stay within
+ * the ephemeral port range.
+ *
+ * Usage: HeldConnections port connections
+ */
+public class HeldConnections {
+    private static final int SOURCE_ADDRESSES = 16;
+    private static final int CONNECT_CONCURRENCY = 512; // Connects in flight at once, to avoid flooding the backlog
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.parseInt(args[0]);
+        int connections = Integer.parseInt(args[1]);
+
+        List<Socket> sockets = new ArrayList<>(connections);
+        LongAdder failed = new LongAdder();
+        CountDownLatch done = new CountDownLatch(connections);
+        Semaphore connecting = new Semaphore(CONNECT_CONCURRENCY);
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            final int n = i;
+            connecting.acquire();
+            Thread.startVirtualThread(() -> {
+                try {
+                    Socket socket = new Socket();
+                    socket.bind(new InetSocketAddress("127.0.0." + (2 + n % SOURCE_ADDRESSES), 0));
+                    socket.connect(new InetSocketAddress("127.0.0.1", port), 30_000);
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    out.println("hello " + n);
+                    if (in.readLine() == null) {
+                        throw new IOException("closed by server");
+                    }
+                    synchronized (sockets) {
+                        sockets.add(socket);
+                    }
+                } catch (IOException e) {
+                    failed.increment();
+                } finally {
+                    connecting.release();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        System.out.printf("READY %d connected, %d failed in %.1f s%n", sockets.size(), failed.sum(),
+                (System.nanoTime() - start) / 1e9);
+        System.out.flush();
+
+        while (System.in.read() != -1) {
+            // Hold the connections until the parent closes our stdin
+        }
+        for (Socket socket : sockets) {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Starts HeldConnections in a child JVM with this JVM's class path. The caller reads
+     * its output up to the READY line and closes its stdin to release the connections.
+     */
+    static Process start(int port, int connections) throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                HeldConnections.class.getName(), String.valueOf(port), String.valueOf(connections));
+        builder.redirectErrorStream(true);
+        return builder.start();
+    }
+
+    /**
+     * Echoes the child's output until its READY line, which is returned.
+     */
+    static String awaitReady(Process clients) throws IOException {
+        BufferedReader output = new BufferedReader(new InputStreamReader(clients.getInputStream()));
+        String line;
+        while ((line = output.readLine()) != null) {
+            System.out.println("[clients] " + line);
+            if (line.startsWith("READY")) {
+                return line;
+            }
+        }
+        throw new IllegalStateException("Client process exited before connecting");
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.networking.tcp.client;
+
+import com.example.networking.bench.LocalServers;
+import com.example.networking.tcp.server.NIOServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpBench compares the HTTP/1.1 mode of NIOServer with its line protocol on the
+ * same selector engine. Both servers run in this process on loopback and answer the
+ * same uppercase request; closed-loop clients measure requests/s and the round-trip
+ * time of each batch:
+ *   line        "hello\n" per round trip (the line protocol can't frame pipelined messages)
+ *   http        GET /upper?msg=hello on a keep-alive connection
+ *   http xN     N pipelined GETs per round trip
+ * The HTTP server can equally be driven by standard tools, e.g.
+ *   java --enable-preview -Dnio.quiet=true ... NIOServer 12345 --http
+ *   wrk -t2 -c64 -d10s 'http://localhost:12345/upper?msg=hello'
+ *
+ * Usage: HttpBench [clients] [seconds] [pipeline depth]
+ */
+public class HttpBench {
+    private static final String HOST = "localhost";
+    private static final int LINE_PORT = 12460;
+    private static final int HTTP_PORT = 12461;
+    private static final byte[] LINE_REQUEST = "hello\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_REQUEST = "GET /upper?msg=hello HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        System.setProperty("nio.quiet", "true"); // Per-message logging would dominate the measurement
+
+        LocalServers.startInBackground(new NIOServer(LINE_PORT, null)::start, LINE_PORT);
+        LocalServers.startInBackground(new NIOServer(HTTP_PORT, null, true)::start, HTTP_PORT);
+
+        // Warm up both codecs before measuring
+        run("warmup", clients, 2, LINE_PORT, 1);
+        run("warmup", clients, 2, HTTP_PORT, depth);
+
+        System.out.printf("%-10s %12s %14s %14s%n", "protocol", "req/s", "p50 RTT (us)", "p99 RTT (us)");
+        print("line", run("line", clients, seconds, LINE_PORT, 1), 1, seconds);
+        print("http", run("http", clients, seconds, HTTP_PORT, 1), 1, seconds);
+        if (depth > 1) {
+            print("http x" + depth, run("http", clients, seconds, HTTP_PORT, depth), depth, seconds);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs closed-loop clients that send depth requests at a time and wait for all
+     * their responses. Returns the round-trip time of every batch in nanoseconds.
+     */
+    private static long[] run(String label, int clients, int seconds, int port, int depth) throws InterruptedException {
+        boolean http = port == HTTP_PORT;
+        byte[] batch = new byte[(http ? HTTP_REQUEST : LINE_REQUEST).length * depth];
+        for (int i = 0; i < depth; i++) {
+            byte[] request = http ? HTTP_REQUEST : LINE_REQUEST;
+            System.arraycopy(request, 0, batch, i * request.length, request.length);
+        }
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long[][] results = new long[clients][];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            final int id = c;
+            threads[c] = Thread.ofPlatform().name(label + "-client-" + c).start(() -> {
+                long[] samples = new long[1 << 16];
+                int count = 0;
+                try (Socket socket = new Socket(HOST, port)) {
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = socket.getOutputStream();
+                    ResponseReader in = new ResponseReader(socket.getInputStream());
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        out.write(batch);
+                        for (int i = 0; i < depth; i++) {
+                            if (!(http ? in.skipHttpResponse() : in.skipLine())) {
+                                throw new IOException("connection closed by server");
+                            }
+                        }
+                        if (count == samples.length) {
+                            samples = Arrays.copyOf(samples, samples.length * 2);
+                        }
+                        samples[count++] = System.nanoTime() - start;
+                    }
+                } catch (IOException e) {
+                    System.err.println(label + " client " + id + " error: " + e.getMessage());
+                }
+                results[id] = Arrays.copyOf(samples, count);
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return Arrays.stream(results).flatMapToLong(Arrays::stream).sorted().toArray();
+    }
+
+    private static void print(String label, long[] sorted, int depth, int seconds) {
+        if (sorted.length == 0) {
+            System.out.printf("%-10s %12s%n", label, "no samples");
+            return;
+        }
+        System.out.printf("%-10s %12.0f %14.1f %14.1f%n", label, sorted.length * (double) depth / seconds,
+                sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3);
+    }
+
+    /**
+     * Buffered reader that frames responses without decoding them into Strings.
+     */
+    private static class ResponseReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+        private int lineStart; // Where the line last returned by skipLine() begins
+
+        ResponseReader(InputStream in) {
+            this.in = in;
+        }
+
+        boolean skipLine() throws IOException {
+            while (true) {
+                for (int i = position; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        lineStart = position;
+                        position = i + 1;
+                        return true;
+                    }
+                }
+                if (!fill()) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Skips one response: the head up to the blank line, then Content-Length bytes of body.
+         */
+        boolean skipHttpResponse() throws IOException {
+            int contentLength = 0;
+            while (true) {
+                if (!skipLine()) {
+                    return false;
+                }
+                int lineLength = position - lineStart;
+                if (lineLength == 2) {
+                    break; // "\r\n" ends the head
+                }
+                if (lineLength > 16 && (buffer[lineStart] | 0x20) == 'c' && regionMatches(lineStart, "content-length: ")) {
+                    contentLength = Integer.parseInt(new String(buffer, lineStart + 16, lineLength - 18, StandardCharsets.US_ASCII));
+                }
+            }
+            while (limit - position < contentLength) {
+                contentLength -= limit - position;
+                position = limit;
+                if (!fill()) {
+                    return false;
+                }
+            }
+            position += contentLength;
+            return true;
+        }
+
+        private boolean regionMatches(int from, String lowercase) {
+            for (int i = 0; i < lowercase.length(); i++) {
+                if ((buffer[from + i] | 0x20) != lowercase.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reads more bytes, moving an unfinished line to the front first.
+         */
+        private boolean fill() throws IOException {
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                return false;
+            }
+            limit += n;
+            return true;
+        }
+    }
+}
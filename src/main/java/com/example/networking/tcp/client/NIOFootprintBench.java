@@ -0,0 +1,98 @@
+package com.example.networking.tcp.client;
+
+import com.example.networking.tcp.server.ConnectionTable;
+import com.example.networking.tcp.server.NIOServer;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NIOFootprintBench reports what an idle connection costs NIOServer.
+ *
+ * Part 1 holds real connections open (one request each) against an in-process
+ * NIOServer and reports heap and resident bytes per connection. That covers the
+ * socket channel, its selection key and the selector's bookkeeping as well as the
+ * server's own connection state, and is bounded by the file descriptor limit.
+ *
+ * Part 2 measures the ConnectionTable alone at counts beyond what the sandbox can
+ * open as sockets (default 100k and 1M), using stand-in selection keys and
+ * subtracting their cost, so the server's own per-connection state is isolated.
+ *
+ * Usage: NIOFootprintBench [connections] [tableCounts, e.g. 100000,1000000]
+ */
+public class NIOFootprintBench {
+    private static final int PORT = 12430;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        String[] tableCounts = (args.length > 1 ? args[1] : "100000,1000000").split(",");
+        System.setProperty("nio.quiet", "true");
+
+        NIOServer server = new NIOServer(PORT, null);
+        Thread selectorThread = Thread.ofPlatform().name("nio-server").start(server::start);
+        Thread.sleep(500);
+        long heapBaseline = VThreadBench.usedHeapAfterGc();
+        long rssBaseline = VThreadBench.residentBytes();
+
+        Process clients = HeldConnections.start(PORT, connections);
+        HeldConnections.awaitReady(clients);
+        int open = server.openConnections();
+        long heap = VThreadBench.usedHeapAfterGc() - heapBaseline;
+        long rss = VThreadBench.residentBytes() - rssBaseline;
+        System.out.printf("open connections       %,d%n", open);
+        System.out.printf("heap per connection    %,d bytes%n", open == 0 ? 0 : heap / open);
+        if (rss > 0) {
+            System.out.printf("RSS per connection     %,d bytes%n", open == 0 ? 0 : rss / open);
+        }
+        clients.getOutputStream().close(); // Tells the client process to hang up
+        clients.waitFor(60, TimeUnit.SECONDS);
+        server.stop();
+        selectorThread.join();
+
+        System.out.println();
+        System.out.printf("%-14s %16s %16s%n", "table entries", "table bytes", "bytes/entry");
+        for (String count : tableCounts) {
+            int n = Integer.parseInt(count.trim());
+            long bytes = tableFootprint(n);
+            System.out.printf("%-14s %,16d %16.1f%n", String.format("%,d", n), bytes, (double) bytes / n);
+        }
+    }
+
+    /**
+     * Heap retained by a ConnectionTable holding n connections, excluding the keys themselves.
+     */
+    private static long tableFootprint(int n) throws InterruptedException {
+        long baseline = VThreadBench.usedHeapAfterGc();
+        SelectionKey[] keys = new SelectionKey[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = new StandInKey();
+        }
+        long keysOnly = VThreadBench.usedHeapAfterGc() - baseline;
+
+        ConnectionTable table = new ConnectionTable(16); // Grow as NIOServer's table would
+        long now = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            table.allocate(keys[i], now);
+        }
+        long withTable = VThreadBench.usedHeapAfterGc() - baseline;
+        if (table.size() != n) {
+            throw new IllegalStateException("table holds " + table.size() + " of " + n);
+        }
+        return withTable - keysOnly;
+    }
+
+    /**
+     * Minimal SelectionKey that only carries an attachment.
+     */
+    private static final class StandInKey extends SelectionKey {
+        @Override public AbstractSelectableChannel channel() { return null; }
+        @Override public Selector selector() { return null; }
+        @Override public boolean isValid() { return true; }
+        @Override public void cancel() {}
+        @Override public int interestOps() { return 0; }
+        @Override public SelectionKey interestOps(int ops) { return this; }
+        @Override public int readyOps() { return 0; }
+    }
+}
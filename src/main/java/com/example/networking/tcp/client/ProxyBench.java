@@ -0,0 +1,103 @@
+package com.example.networking.tcp.client;
+
+import com.example.networking.bench.LocalServers;
+import com.example.networking.tcp.server.BackendPool;
+import com.example.networking.tcp.server.NIOServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProxyBench compares talking to NIOServer backends directly with going through
+ * an NIOServer running in proxy mode. It starts the backends and the proxy in this
+ * process on loopback, then runs closed-loop request/response clients against each
+ * target and reports requests/s and round-trip latency. The difference between the
+ * two rows is the latency and throughput cost the proxy adds.
+ *
+ * Usage: ProxyBench [clients] [seconds] [round-robin|least-connections]
+ */
+public class ProxyBench {
+    private static final String HOST = "localhost";
+    private static final int PROXY_PORT = 12400;
+    private static final int[] BACKEND_PORTS = { 12401, 12402 };
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        BackendPool.Strategy strategy = args.length > 2 && "least-connections".equals(args[2])
+                ? BackendPool.Strategy.LEAST_CONNECTIONS : BackendPool.Strategy.ROUND_ROBIN;
+        System.setProperty("nio.quiet", "true"); // Per-message logging would dominate the measurement
+
+        List<InetSocketAddress> backends = new ArrayList<>();
+        for (int port : BACKEND_PORTS) {
+            LocalServers.startInBackground(new NIOServer(port, null)::start, port);
+            backends.add(new InetSocketAddress(HOST, port));
+        }
+        LocalServers.startInBackground(new NIOServer(PROXY_PORT, new BackendPool(backends, strategy))::start, PROXY_PORT);
+
+        // Warm up both paths before measuring
+        run("warmup", clients, 2, BACKEND_PORTS[0], BACKEND_PORTS[1]);
+        run("warmup", clients, 2, PROXY_PORT);
+
+        System.out.printf("%-8s %12s %12s %12s%n", "target", "req/s", "p50 (us)", "p99 (us)");
+        print("direct", clients, run("direct", clients, seconds, BACKEND_PORTS[0], BACKEND_PORTS[1]), seconds);
+        print("proxy", clients, run("proxy", clients, seconds, PROXY_PORT), seconds);
+        System.exit(0);
+    }
+
+    /**
+     * Runs closed-loop clients spread over the given ports and returns all round-trip times in nanoseconds.
+     */
+    private static long[] run(String label, int clients, int seconds, int... ports) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long[][] results = new long[clients][];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            final int id = c;
+            threads[c] = Thread.ofPlatform().name(label + "-client-" + c).start(() -> {
+                long[] samples = new long[1 << 16];
+                int count = 0;
+                try (Socket socket = new Socket(HOST, ports[id % ports.length]);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                     PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                    socket.setTcpNoDelay(true);
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        out.println("hello from client " + id);
+                        if (in.readLine() == null) {
+                            break;
+                        }
+                        if (count == samples.length) {
+                            samples = Arrays.copyOf(samples, samples.length * 2);
+                        }
+                        samples[count++] = System.nanoTime() - start;
+                    }
+                } catch (IOException e) {
+                    System.err.println(label + " client " + id + " error: " + e.getMessage());
+                }
+                results[id] = Arrays.copyOf(samples, count);
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return Arrays.stream(results).flatMapToLong(Arrays::stream).sorted().toArray();
+    }
+
+    private static void print(String label, int clients, long[] sorted, int seconds) {
+        if (sorted.length == 0) {
+            System.out.printf("%-8s %12s%n", label, "no samples");
+            return;
+        }
+        System.out.printf("%-8s %12.0f %12.1f %12.1f%n", label, sorted.length / (double) seconds,
+                sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.networking.tcp.client;
+
+import com.example.networking.tcp.server.BlockingServerVThread;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * VThreadBench holds a large number of concurrent connections open against
+ * BlockingServerVThread and reports what each one costs the server:
+ *   - heap bytes per connection (heap used after GC, minus the idle baseline)
+ *   - resident memory per connection (VmRSS, Linux only)
+ *   - virtual thread pinning: jdk.VirtualThreadPinned JFR events, i.e. how often a
+ *     virtual thread blocked while holding its carrier thread
+ * The server runs in this JVM; the clients are held open by a HeldConnections child
+ * process until the measurement is done.
+ *
+ * 100k connections need about 100k file descriptors per process (ulimit -n) and are
+ * spread over the source addresses 127.0.0.2-127.0.0.17 to stay within the ephemeral port range.
+ *
+ * Usage: VThreadBench [connections]            (run with --enable-preview)
+ */
+public class VThreadBench {
+    private static final int PORT = 12420;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        System.setProperty("server.quiet", "true"); // Per-message logging would dominate the run
+
+        BlockingServerVThread server = new BlockingServerVThread(PORT);
+        Thread owner = Thread.ofPlatform().name("server-owner").start(() -> {
+            try {
+                server.start();
+            } catch (IOException | InterruptedException e) {
+                System.err.println("Server failed: " + e.getMessage());
+            }
+        });
+
+        LongAdder pinnedEvents = new LongAdder();
+        AtomicLong pinnedNanos = new AtomicLong();
+        try (RecordingStream pinning = new RecordingStream()) {
+            pinning.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            pinning.onEvent("jdk.VirtualThreadPinned", event -> {
+                pinnedEvents.increment();
+                pinnedNanos.addAndGet(event.getDuration().toNanos());
+            });
+            pinning.startAsync();
+
+            Thread.sleep(500);
+            long heapBaseline = usedHeapAfterGc();
+            long rssBaseline = residentBytes();
+
+            Process clients = HeldConnections.start(PORT, connections);
+            HeldConnections.awaitReady(clients);
+
+            int open = server.activeConnections();
+            long heap = usedHeapAfterGc() - heapBaseline;
+            long rss = residentBytes() - rssBaseline;
+            System.out.printf("open connections       %,d%n", open);
+            System.out.printf("heap per connection    %,d bytes%n", open == 0 ? 0 : heap / open);
+            if (rss > 0) {
+                System.out.printf("RSS per connection     %,d bytes%n", open == 0 ? 0 : rss / open);
+            }
+            System.out.printf("carrier threads        %s%n",
+                    System.getProperty("jdk.virtualThreadScheduler.parallelism", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            System.out.printf("pinned events          %,d (%.1f ms total)%n", pinnedEvents.sum(), pinnedNanos.get() / 1e6);
+
+            clients.getOutputStream().close(); // Tells the client process to hang up
+            clients.waitFor(60, TimeUnit.SECONDS);
+        }
+        server.stop();
+        owner.join();
+    }
+
+    static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Resident set size of this process from /proc, or 0 where that isn't available.
+     */
+    static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return 0;
+    }
+}
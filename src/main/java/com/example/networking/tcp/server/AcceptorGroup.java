@@ -0,0 +1,170 @@
+package com.example.networking.tcp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * AcceptorGroup runs several accept threads for the blocking servers. Where the OS
+ * supports SO_REUSEPORT, every acceptor binds its own ServerSocketChannel to the same
+ * port and the kernel spreads incoming connections across their accept queues.
+ * Otherwise all acceptors share one channel. Accepted sockets get the configured
+ * options and are handed off immediately, so an acceptor never does more than accept.
+ */
+public class AcceptorGroup {
+
+    /**
+     * Listen and socket settings. Buffer sizes of 0 keep the OS defaults.
+     */
+    public record Config(int port, int acceptors, int backlog, boolean tcpNoDelay,
+                         int sendBufferSize, int receiveBufferSize, boolean logAccepts) {
+
+        /**
+         * Reads -Dserver.acceptors (default: available processors), -Dserver.backlog (default 4096),
+         * -Dserver.tcpNoDelay (default true), -Dserver.sendBufferSize, -Dserver.receiveBufferSize
+         * and -Dserver.logAccepts (default false).
+         */
+        public static Config fromSystemProperties(int port) {
+            return new Config(
+                    port,
+                    Integer.getInteger("server.acceptors", Runtime.getRuntime().availableProcessors()),
+                    Integer.getInteger("server.backlog", 4096),
+                    Boolean.parseBoolean(System.getProperty("server.tcpNoDelay", "true")),
+                    Integer.getInteger("server.sendBufferSize", 0),
+                    Integer.getInteger("server.receiveBufferSize", 0),
+                    Boolean.getBoolean("server.logAccepts"));
+        }
+    }
+
+    private final Config config;
+    private final Consumer<Socket> handoff; // Receives every accepted socket, must not block
+    private final List<ServerSocketChannel> channels = new ArrayList<>();
+    private final List<Thread> acceptors = new ArrayList<>();
+    private final LongAdder accepted = new LongAdder();
+    private volatile boolean running = true;
+
+    public AcceptorGroup(Config config, Consumer<Socket> handoff) {
+        this.config = config;
+        this.handoff = handoff;
+    }
+
+    /**
+     * Binds the listening channels and starts the accept threads.
+     */
+    public void start() throws IOException {
+        start(acceptLoop -> {
+            Thread thread = new Thread(acceptLoop, "acceptor-" + acceptors.size());
+            acceptors.add(thread);
+            thread.start();
+        });
+    }
+
+    /**
+     * Binds the listening channels and hands each accept loop to the launcher, e.g. to
+     * fork it into a StructuredTaskScope. join() does not wait for loops started this way.
+     */
+    public void start(Consumer<Runnable> launcher) throws IOException {
+        ServerSocketChannel first = openChannel(config.port());
+        channels.add(first);
+        boolean reusePort = first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        for (int i = 1; i < config.acceptors() && reusePort; i++) {
+            channels.add(openChannel(port())); // Same port as the first, even if that one was ephemeral
+        }
+        System.out.println("Listening on port " + port() + " with " + config.acceptors() + " acceptors, "
+                + channels.size() + " listen sockets, backlog " + config.backlog());
+
+        for (int i = 0; i < config.acceptors(); i++) {
+            ServerSocketChannel channel = channels.get(i % channels.size());
+            launcher.accept(() -> acceptLoop(channel));
+        }
+    }
+
+    /**
+     * Blocks until every acceptor has exited, i.e. until stop() is called.
+     */
+    public void join() throws InterruptedException {
+        for (Thread thread : acceptors) {
+            thread.join();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        for (ServerSocketChannel channel : channels) {
+            try {
+                channel.close(); // Unblocks the acceptors waiting in accept()
+            } catch (IOException e) {
+                System.err.println("Error closing server channel: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The bound port, which differs from the configured one when that was 0 (ephemeral).
+     */
+    public int port() {
+        try {
+            return ((InetSocketAddress) channels.get(0).getLocalAddress()).getPort();
+        } catch (IOException | IndexOutOfBoundsException e) {
+            return config.port(); // Not bound (yet)
+        }
+    }
+
+    public long acceptedCount() {
+        return accepted.sum();
+    }
+
+    private ServerSocketChannel openChannel(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        if (config.acceptors() > 1 && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        if (config.receiveBufferSize() > 0) {
+            // Must be set before bind so accepted sockets can negotiate a large enough window scale
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize());
+        }
+        channel.bind(new InetSocketAddress(port), config.backlog());
+        return channel;
+    }
+
+    private void acceptLoop(ServerSocketChannel channel) {
+        while (running) {
+            try {
+                SocketChannel client = channel.accept(); // Blocking accept, the channel is in blocking mode
+                try {
+                    configure(client);
+                } catch (IOException e) {
+                    client.close(); // Peer already reset the connection
+                    continue;
+                }
+                accepted.increment();
+                if (config.logAccepts()) {
+                    System.out.println("Client connected: " + client.getRemoteAddress());
+                }
+                handoff.accept(client.socket());
+            } catch (IOException e) {
+                if (running) { // Only print error if server is still supposed to be running
+                    System.err.println("Error accepting client connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void configure(SocketChannel client) throws IOException {
+        client.setOption(StandardSocketOptions.TCP_NODELAY, config.tcpNoDelay());
+        if (config.sendBufferSize() > 0) {
+            client.setOption(StandardSocketOptions.SO_SNDBUF, config.sendBufferSize());
+        }
+        if (config.receiveBufferSize() > 0) {
+            client.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.networking.tcp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BackendPool holds the upstream servers of NIOServer's proxy mode. It picks a backend
+ * for each new client and keeps a few spare connections per backend, opened ahead of
+ * time, so most clients get an upstream channel without waiting for a TCP handshake.
+ * A spare is never shared: once a client has used an upstream channel it is closed with
+ * that client, since a byte relay cannot tell whether the backend still owes it a reply.
+ * It is only used from the selector thread, so it needs no synchronization.
+ */
+public class BackendPool {
+    public enum Strategy { ROUND_ROBIN, LEAST_CONNECTIONS }
+
+    private static final int SPARES_PER_BACKEND = 8; // Pre-connected, never used channels kept per backend
+
+    /**
+     * One upstream server with its active connection count and spare connections.
+     */
+    public static class Backend {
+        final InetSocketAddress address;
+        int activeConnections; // Clients currently relayed to this backend
+        final ArrayDeque<SocketChannel> spares = new ArrayDeque<>(); // Connected and waiting for a client
+        int connectingSpares; // Spares whose connect is still in progress
+
+        Backend(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public String toString() {
+            return address.toString();
+        }
+    }
+
+    private final List<Backend> backends = new ArrayList<>();
+    private final Strategy strategy;
+    private int nextIndex; // Round-robin cursor
+
+    public BackendPool(List<InetSocketAddress> addresses, Strategy strategy) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("Proxy mode needs at least one backend");
+        }
+        for (InetSocketAddress address : addresses) {
+            backends.add(new Backend(address));
+        }
+        this.strategy = strategy;
+    }
+
+    /**
+     * Parses a comma-separated backend list such as "localhost:12346,localhost:12347".
+     */
+    public static List<InetSocketAddress> parseAddresses(String spec) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (!entry.isEmpty()) {
+                int colon = entry.lastIndexOf(':');
+                addresses.add(new InetSocketAddress(entry.substring(0, colon), Integer.parseInt(entry.substring(colon + 1))));
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Picks the backend for a new client connection and counts it as active.
+     */
+    public Backend choose() {
+        Backend chosen;
+        if (strategy == Strategy.LEAST_CONNECTIONS) {
+            chosen = backends.get(0);
+            for (Backend backend : backends) {
+                if (backend.activeConnections < chosen.activeConnections) {
+                    chosen = backend;
+                }
+            }
+        } else {
+            chosen = backends.get(nextIndex);
+            nextIndex = (nextIndex + 1) % backends.size();
+        }
+        chosen.activeConnections++;
+        return chosen;
+    }
+
+    /**
+     * Returns a spare connected channel to the backend, or null if the pool has none.
+     */
+    public SocketChannel takeSpare(Backend backend) {
+        SocketChannel channel;
+        while ((channel = backend.spares.pollFirst()) != null) {
+            if (channel.isOpen()) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens a new non-blocking channel to the backend. The connect may still be in progress.
+     */
+    public SocketChannel open(Backend backend) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.connect(backend.address);
+        return channel;
+    }
+
+    /**
+     * Opens a spare channel if the backend is short of them, counting it as connecting.
+     * @return the new channel, or null if the backend has enough spares.
+     */
+    public SocketChannel openSpare(Backend backend) throws IOException {
+        if (backend.spares.size() + backend.connectingSpares >= SPARES_PER_BACKEND) {
+            return null;
+        }
+        SocketChannel channel = open(backend);
+        backend.connectingSpares++;
+        return channel;
+    }
+
+    /**
+     * Called once a spare's connect has finished, successfully or not.
+     */
+    public void spareConnected(Backend backend, SocketChannel channel, boolean connected) {
+        backend.connectingSpares--;
+        if (connected) {
+            backend.spares.addLast(channel);
+        }
+    }
+
+    /**
+     * Marks a client as finished. Its upstream channel is closed by the caller, never pooled.
+     */
+    public void release(Backend backend) {
+        backend.activeConnections--;
+    }
+
+    /**
+     * Drops a spare channel that the backend closed or wrote to unexpectedly.
+     */
+    public void evictSpare(Backend backend, SocketChannel channel) {
+        backend.spares.remove(channel);
+    }
+}
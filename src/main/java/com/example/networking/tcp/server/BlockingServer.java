@@ -1,9 +1,8 @@
 package com.example.networking.tcp.server;
 import com.example.networking.tcp.client.ClientHandler;
+import com.example.networking.trace.StageTracer;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -11,15 +10,23 @@ import java.util.concurrent.TimeUnit;
 /**
  * The Server class listens for incoming client connections and
  * uses a thread pool to handle each client concurrently.
+ * Connections are accepted by an AcceptorGroup, see AcceptorGroup.Config for the
+ * -Dserver.* properties controlling acceptor threads, backlog and socket options.
  */
 public class BlockingServer {
     private static final int PORT = 12345; // Port number for the server
     private static final int THREAD_POOL_SIZE = 10; // Maximum number of threads in the pool
     private ExecutorService executorService; // Thread pool for handling client connections
-    private ServerSocket serverSocket; // Socket for listening to incoming connections
+    private AcceptorGroup acceptorGroup; // Accept threads listening for incoming connections
     private volatile boolean running = true; // Flag to control server's running state
+    private final int port;
 
     public BlockingServer() {
+        this(PORT);
+    }
+
+    public BlockingServer(int port) {
+        this.port = port;
         // Initialize a fixed-size thread pool. This pool will reuse a fixed
         // number of threads operating off a shared unbounded queue.
         // If additional tasks are submitted when all threads are active, they
@@ -33,8 +40,13 @@ public class BlockingServer {
      */
     public void start() {
         try {
-            serverSocket = new ServerSocket(PORT);
-            System.out.println("Server started on port " + PORT);
+            // Submit each ClientHandler task to the thread pool.
+            // The executor service will pick an available thread from the pool
+            // or queue the task if all threads are busy.
+            acceptorGroup = new AcceptorGroup(AcceptorGroup.Config.fromSystemProperties(port),
+                    clientSocket -> executorService.submit(new ClientHandler(clientSocket)));
+            acceptorGroup.start();
+            System.out.println("Server started on port " + acceptorGroup.port());
 
             // Add a shutdown hook to gracefully shut down the server
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -42,25 +54,11 @@ public class BlockingServer {
                 stop();
             }));
 
-            while (running) {
-                try {
-                    // Accept a new client connection. This is a blocking call.
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("Client connected: " + clientSocket.getInetAddress().getHostAddress());
-
-                    // Submit the ClientHandler task to the thread pool.
-                    // The executor service will pick an available thread from the pool
-                    // or queue the task if all threads are busy.
-                    executorService.submit(new ClientHandler(clientSocket));
-                } catch (IOException e) {
-                    if (running) { // Only print error if server is still supposed to be running
-                        System.err.println("Error accepting client connection: " + e.getMessage());
-                    }
-                }
-            }
+            acceptorGroup.join(); // Returns once stop() has closed the listen sockets
         } catch (IOException e) {
-            System.err.println("Could not listen on port " + PORT + ": " + e.getMessage());
-            running = false; // Ensure running flag is false if server socket fails to open
+            System.err.println("Could not listen on port " + port + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             stop(); // Ensure resources are closed even if an exception occurs
         }
@@ -71,7 +69,13 @@ public class BlockingServer {
      * and closing the server socket.
      */
     public void stop() {
+        if (!running) {
+            return; // Already stopped by the shutdown hook or by start() returning
+        }
         running = false; // Set running flag to false to stop the accept loop
+        if (acceptorGroup != null) {
+            acceptorGroup.stop(); // Stop accepting before draining the pool
+        }
 
         // Attempt to gracefully shut down the executor service.
         // It will stop accepting new tasks and finish existing ones.
@@ -88,19 +92,15 @@ public class BlockingServer {
             Thread.currentThread().interrupt(); // Restore interrupt status
         }
 
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            try {
-                serverSocket.close();
-                System.out.println("Server socket closed.");
-            } catch (IOException e) {
-                System.err.println("Error closing server socket: " + e.getMessage());
-            }
+        StageTracer tracer = StageTracer.fromSystemProperties(); // The one ClientHandler records into
+        if (tracer != null) {
+            System.out.print(tracer.report());
         }
         System.out.println("Server stopped.");
     }
 
     public static void main(String[] args) {
-        BlockingServer server = new BlockingServer();
+        BlockingServer server = new BlockingServer(args.length > 0 ? Integer.parseInt(args[0]) : PORT);
         server.start();
     }
 }
\ No newline at end of file
@@ -1,31 +1,227 @@
 package com.example.networking.tcp.server;
 
 import com.example.networking.tcp.client.ClientHandler;
+import com.example.networking.trace.StageTracer;
 
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.StructuredTaskScope.Subtask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Blocking server that handles every connection on its own virtual thread, organised
+ * as a tree of structured task scopes:
+ *   server scope   - owns the acceptors and one subtask per connection. stop() stops
+ *                    accepting, waits for connections to drain, then cancels the rest.
+ *   connection     - runs with CONNECTION bound, so everything it calls (and every
+ *                    subtask it forks) can see which connection it is serving.
+ *   request scope  - with -Dserver.fanOut=true, each request fans out into parallel
+ *                    subtasks that share one deadline and are cancelled together on
+ *                    failure or timeout. Off by default: the stand-in work is far cheaper
+ *                    than forking for it, so requests are answered inline.
+ * The number of requests in flight across all connections is bounded by a semaphore.
+ *
+ * Connections are accepted by an AcceptorGroup, see AcceptorGroup.Config for the
+ * -Dserver.* properties controlling acceptor threads, backlog and socket options.
+ * Additional properties: -Dserver.requestTimeoutMillis (default 1000),
+ * -Dserver.maxInFlight (default 10000), -Dserver.drainSeconds (default 30).
+ *
+ * StructuredTaskScope and ScopedValue are preview APIs: run with --enable-preview.
+ * This is the JDK 24 form of StructuredTaskScope (subclassing, ShutdownOnFailure,
+ * joinUntil), which JDK 25 replaced, so the build is pinned to JDK 24 (see pom.xml).
+ */
 public class BlockingServerVThread {
-    private static final int PORT = 12345; // Port number for the servere pool
-    private static boolean running = true; // Flag to control server's running state
+    private static final int PORT = 12345; // Port number for the server
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(Long.getLong("server.requestTimeoutMillis", 1000));
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("server.maxInFlight", 10_000);
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(Long.getLong("server.drainSeconds", 30));
+    private static final boolean FAN_OUT = Boolean.getBoolean("server.fanOut"); // Per-request structured subtasks
 
-    public static void main(String[] args) throws IOException {
-        ServerSocket serverSocket = new ServerSocket(PORT);
-        System.out.println("BlockingServerVThread started on port " + PORT);
+    /**
+     * The connection served by the current thread.
+     */
+    public record ConnectionContext(long id, String remoteAddress, long acceptedAtNanos) {}
 
-        while (running) {
+    // Bound for the lifetime of each connection handler and inherited by its request subtasks
+    public static final ScopedValue<ConnectionContext> CONNECTION = ScopedValue.newInstance();
+
+    private final AcceptorGroup acceptorGroup;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT); // Bounds concurrent requests server-wide
+    private final CountDownLatch stopRequested = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicLong nextConnectionId = new AtomicLong();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder failedConnections = new LongAdder();
+    private volatile ServerScope serverScope;
+
+    public BlockingServerVThread(int port) {
+        this.acceptorGroup = new AcceptorGroup(AcceptorGroup.Config.fromSystemProperties(port), this::forkConnection);
+    }
+
+    /**
+     * Runs the server until stop() is called. The calling thread owns the server scope.
+     */
+    public void start() throws IOException, InterruptedException {
+        try (ServerScope scope = new ServerScope()) {
+            serverScope = scope;
+            // Acceptors are subtasks of the server scope too, which is what allows them
+            // to fork connection handlers into it.
+            acceptorGroup.start(acceptLoop -> scope.fork(() -> {
+                acceptLoop.run();
+                return null;
+            }));
+            System.out.println("BlockingServerVThread started on port " + acceptorGroup.port());
+
+            stopRequested.await();
+            acceptorGroup.stop();
             try {
-                // Accept a new client connection. This is a blocking call.
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Client connected: " + clientSocket.getInetAddress().getHostAddress());
-                Thread.startVirtualThread(new ClientHandler(clientSocket));
-            } catch (IOException e) {
-                if (running) { // Only print error if server is still supposed to be running
-                    System.err.println("Error accepting client connection: " + e.getMessage());
+                scope.joinUntil(Instant.now().plus(DRAIN_TIMEOUT)); // Let open connections finish on their own
+            } catch (TimeoutException e) {
+                System.out.println("Drain timed out, cancelling " + activeConnections.get() + " connections");
+            }
+            // Interrupts every remaining handler; a virtual thread blocked in a socket read
+            // has its socket closed, so handlers unwind promptly.
+            scope.shutdown();
+        } finally {
+            StageTracer tracer = StageTracer.fromSystemProperties(); // The one ClientHandler records into
+            if (tracer != null) {
+                System.out.print(tracer.report());
+            }
+            System.out.println("Server stopped. Failed connection handlers: " + failedConnections.sum());
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Requests a graceful stop and waits for the server scope to close.
+     */
+    public void stop() {
+        stopRequested.countDown();
+        try {
+            stopped.await(DRAIN_TIMEOUT.toSeconds() + 5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int activeConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Called on an acceptor thread for every new connection.
+     */
+    private void forkConnection(Socket socket) {
+        ConnectionContext context = new ConnectionContext(nextConnectionId.incrementAndGet(),
+                socket.getInetAddress().getHostAddress(), System.nanoTime());
+        activeConnections.incrementAndGet();
+        // Whoever sets this first owns the socket: the subtask when it starts, or this thread
+        // when the scope was shut down before the subtask ever ran.
+        AtomicBoolean claimed = new AtomicBoolean();
+        boolean forked = false;
+        try {
+            serverScope.fork(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null; // Handed back to the acceptor, which already cleaned up
+                }
+                try {
+                    ScopedValue.where(CONNECTION, context).run(new StructuredClientHandler(socket));
+                    return null;
+                } finally {
+                    activeConnections.decrementAndGet();
                 }
+            });
+            forked = true;
+        } catch (IllegalStateException | RejectedExecutionException e) {
+            System.err.println("Could not fork connection handler: " + e);
+        }
+        // A scope shut down before or during fork() never starts the subtask, and there is no
+        // state telling "never ran" from "still running", so settle it through the claim.
+        if ((!forked || serverScope.isShutdown()) && claimed.compareAndSet(false, true)) {
+            activeConnections.decrementAndGet();
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Server-wide scope. Makes crashed connection handlers visible instead of letting them vanish.
+     */
+    private class ServerScope extends StructuredTaskScope<Void> {
+        ServerScope() {
+            super("server", Thread.ofVirtual().name("server-vthread-", 0).factory());
+        }
+
+        @Override
+        protected void handleComplete(Subtask<? extends Void> subtask) {
+            if (subtask.state() == Subtask.State.FAILED) {
+                failedConnections.increment();
+                System.err.println("Connection handler failed: " + subtask.exception());
+            }
+        }
+    }
+
+    /**
+     * ClientHandler bounded by the in-flight limit, whose requests optionally fan out into
+     * a deadline-bound StructuredTaskScope.
+     */
+    private class StructuredClientHandler extends ClientHandler {
+        StructuredClientHandler(Socket socket) {
+            super(socket);
+        }
+
+        @Override
+        protected String processMessage(String clientMessage) throws InterruptedException {
+            Instant deadline = Instant.now().plus(REQUEST_TIMEOUT);
+            if (!inFlight.tryAcquire(REQUEST_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS)) {
+                return "SERVER BUSY: too many requests in flight, try again";
+            }
+            try {
+                return FAN_OUT ? fanOut(clientMessage, deadline) : super.processMessage(clientMessage);
+            } finally {
+                inFlight.release();
             }
         }
+
+        private String fanOut(String clientMessage, Instant deadline) throws InterruptedException {
+            try (var scope = new StructuredTaskScope.ShutdownOnFailure("request-" + CONNECTION.get().id(),
+                    Thread.ofVirtual().factory())) {
+                // Independent parts of the response, computed in parallel as stand-ins for backend calls.
+                // Subtasks inherit CONNECTION from this thread.
+                Subtask<String> transformed = scope.fork(() -> clientMessage.toUpperCase());
+                Subtask<Long> processedAt = scope.fork(System::currentTimeMillis);
+
+                scope.joinUntil(deadline);
+                scope.throwIfFailed();
+                return "SERVER RESPONSE: " + transformed.get() + " (Processed at " + processedAt.get() + ")";
+            } catch (TimeoutException e) {
+                // Leaving the try block closes the scope, which cancels the subtasks still running
+                return "SERVER ERROR: request timed out after " + REQUEST_TIMEOUT.toMillis() + " ms";
+            } catch (ExecutionException e) {
+                return "SERVER ERROR: " + e.getCause().getMessage();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT;
+        BlockingServerVThread server = new BlockingServerVThread(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Shutting down server...");
+            server.stop();
+        }));
+        server.start();
     }
 
-}
\ No newline at end of file
+}
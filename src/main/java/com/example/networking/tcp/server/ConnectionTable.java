@@ -0,0 +1,213 @@
+package com.example.networking.tcp.server;
+
+import com.example.networking.trace.StageTracer;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+
+/**
+ * ConnectionTable holds the per-connection state of NIOServer as a struct of arrays.
+ * Every connection gets a small int id that indexes primitive arrays for its flags,
+ * timestamps and counters, so an idle connection costs one slot in each array rather
+ * than a map entry plus boxed values. Ids of closed connections go on a free list and
+ * are handed out again (LIFO, so recently used and cache-warm slots come back first).
+ * The boxed Integer used as a key attachment is kept per slot and reused with it.
+ *
+ * Only the selector thread mutates the table; size() may be read from other threads.
+ */
+public class ConnectionTable {
+    public static final int FLAG_CLOSE_AFTER_WRITE = 1; // Client said "bye", close once the response is flushed
+    public static final int FLAG_READ_PAUSED = 1 << 1;  // Reads suspended by the rate limiter
+
+    private SelectionKey[] keys;
+    private Integer[] boxedIds;      // Key attachments, allocated once per slot
+    private ByteBuffer[] pendingWrites; // Non-null only while a response is partially written
+    private ByteBuffer[] pendingReads;  // Non-null only while a partial request is buffered (HTTP mode)
+    private int[] readMarks;           // How far the buffered partial request has already been scanned
+    private StageTracer.Trace[] pendingTraces; // Trace of a sampled request whose response is still being flushed
+    private int[] flags;
+    private long[] connectedAt;      // System.nanoTime() values
+    private long[] lastActive;
+    private long[] bytesRead;
+    private long[] bytesWritten;
+    private long[] messages;
+
+    private int[] freeIds;           // Stack of released ids
+    private int freeCount;
+    private int highWater;           // Ids below this have been handed out at least once
+    private volatile int size;       // Open connections
+
+    public ConnectionTable(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        keys = new SelectionKey[capacity];
+        boxedIds = new Integer[capacity];
+        pendingWrites = new ByteBuffer[capacity];
+        pendingReads = new ByteBuffer[capacity];
+        readMarks = new int[capacity];
+        pendingTraces = new StageTracer.Trace[capacity];
+        flags = new int[capacity];
+        connectedAt = new long[capacity];
+        lastActive = new long[capacity];
+        bytesRead = new long[capacity];
+        bytesWritten = new long[capacity];
+        messages = new long[capacity];
+        freeIds = new int[capacity];
+    }
+
+    /**
+     * Assigns an id to a new connection and attaches it to the key.
+     */
+    public int allocate(SelectionKey key, long now) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (highWater == keys.length) {
+                grow();
+            }
+            id = highWater++;
+            boxedIds[id] = id;
+        }
+        keys[id] = key;
+        flags[id] = 0;
+        readMarks[id] = 0;
+        connectedAt[id] = now;
+        lastActive[id] = now;
+        bytesRead[id] = 0;
+        bytesWritten[id] = 0;
+        messages[id] = 0;
+        key.attach(boxedIds[id]);
+        size++;
+        return id;
+    }
+
+    /**
+     * Frees the slot of a closed connection for reuse.
+     */
+    public void release(int id) {
+        if (keys[id] == null) {
+            return; // Already released
+        }
+        keys[id] = null;
+        pendingWrites[id] = null;
+        pendingReads[id] = null;
+        pendingTraces[id] = null;
+        freeIds[freeCount++] = id;
+        size--;
+    }
+
+    /**
+     * Returns the id attached to a key by allocate(), or -1 for keys the table doesn't own.
+     */
+    public static int idOf(SelectionKey key) {
+        return key.attachment() instanceof Integer id ? id : -1;
+    }
+
+    public SelectionKey key(int id) {
+        return keys[id];
+    }
+
+    public boolean hasFlag(int id, int flag) {
+        return (flags[id] & flag) != 0;
+    }
+
+    public void setFlag(int id, int flag) {
+        flags[id] |= flag;
+    }
+
+    public void clearFlag(int id, int flag) {
+        flags[id] &= ~flag;
+    }
+
+    public ByteBuffer pendingWrite(int id) {
+        return pendingWrites[id];
+    }
+
+    public void setPendingWrite(int id, ByteBuffer buffer) {
+        pendingWrites[id] = buffer;
+    }
+
+    public ByteBuffer pendingRead(int id) {
+        return pendingReads[id];
+    }
+
+    public void setPendingRead(int id, ByteBuffer buffer) {
+        pendingReads[id] = buffer;
+    }
+
+    public int readMark(int id) {
+        return readMarks[id];
+    }
+
+    public void setReadMark(int id, int mark) {
+        readMarks[id] = mark;
+    }
+
+    public StageTracer.Trace pendingTrace(int id) {
+        return pendingTraces[id];
+    }
+
+    public void setPendingTrace(int id, StageTracer.Trace trace) {
+        pendingTraces[id] = trace;
+    }
+
+    public void recordRead(int id, int bytes, long now) {
+        bytesRead[id] += bytes;
+        messages[id]++;
+        lastActive[id] = now;
+    }
+
+    public void recordWrite(int id, int bytes, long now) {
+        bytesWritten[id] += bytes;
+        lastActive[id] = now;
+    }
+
+    public long connectedAt(int id) {
+        return connectedAt[id];
+    }
+
+    public long lastActive(int id) {
+        return lastActive[id];
+    }
+
+    public long bytesRead(int id) {
+        return bytesRead[id];
+    }
+
+    public long bytesWritten(int id) {
+        return bytesWritten[id];
+    }
+
+    public long messages(int id) {
+        return messages[id];
+    }
+
+    /**
+     * Number of open connections.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        boxedIds = Arrays.copyOf(boxedIds, capacity);
+        pendingWrites = Arrays.copyOf(pendingWrites, capacity);
+        pendingReads = Arrays.copyOf(pendingReads, capacity);
+        readMarks = Arrays.copyOf(readMarks, capacity);
+        pendingTraces = Arrays.copyOf(pendingTraces, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        connectedAt = Arrays.copyOf(connectedAt, capacity);
+        lastActive = Arrays.copyOf(lastActive, capacity);
+        bytesRead = Arrays.copyOf(bytesRead, capacity);
+        bytesWritten = Arrays.copyOf(bytesWritten, capacity);
+        messages = Arrays.copyOf(messages, capacity);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+    }
+}
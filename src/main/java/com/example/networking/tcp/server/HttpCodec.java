@@ -0,0 +1,571 @@
+package com.example.networking.tcp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * HttpCodec is the HTTP/1.1 mode of NIOServer. It serves the same uppercase logic as
+ * the line protocol, plus a plain echo, so standard load generators (wrk, ab, h2load)
+ * can drive the selector engine:
+ *   GET  /upper?msg=hello     or  POST /upper with the message as body
+ *        -> "SERVER RESPONSE: HELLO (Processed at <millis>)\n"
+ *   GET  /echo?msg=hello      or  POST /echo  -> the message unchanged
+ * Query values are taken as raw bytes (no percent-decoding) and uppercased as ASCII.
+ *
+ * Requests are parsed straight out of the byte buffers, without building Strings or
+ * header maps. Reads go into one shared buffer; only a partial request left over at the
+ * end of a read is copied into a pooled per-connection buffer, together with how far its
+ * head has already been scanned so the next read resumes there. Keep-alive is the default
+ * for HTTP/1.1 and pipelined requests are answered in order, all responses of one read
+ * going out in a single write. Header bytes are precomputed, and the Date header is
+ * formatted at most once per second. When the socket can't take a response, the rest is
+ * parked in a pooled buffer and reads stop until it drains (the remaining pipelined
+ * requests are answered after that). Everything runs on the selector thread.
+ */
+public class HttpCodec {
+    public static final int CLOSE = -1; // Returned by read()/write() when the connection should be closed
+
+    private static final int BUFFER_SIZE = 16 * 1024;          // Largest request (head + body) accepted
+    private static final int MAX_BODY = BUFFER_SIZE / 2;       // Keeps every response within one buffer
+    private static final int MAX_RESPONSE = 256 + 64 + MAX_BODY; // Headers + uppercase framing + body
+    private static final int MAX_STATUS_RESPONSE = 256 + 64;     // Headers + reason phrase as body
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    private static final byte[] OK = ascii("HTTP/1.1 200 OK\r\nServer: NIOServer\r\nContent-Type: text/plain; charset=utf-8\r\n");
+    private static final byte[] BAD_REQUEST = ascii("HTTP/1.1 400 Bad Request\r\nServer: NIOServer\r\nContent-Type: text/plain\r\n");
+    private static final byte[] NOT_FOUND = ascii("HTTP/1.1 404 Not Found\r\nServer: NIOServer\r\nContent-Type: text/plain\r\n");
+    private static final byte[] METHOD_NOT_ALLOWED = ascii("HTTP/1.1 405 Method Not Allowed\r\nServer: NIOServer\r\nAllow: GET, POST\r\nContent-Type: text/plain\r\n");
+    private static final byte[] URI_TOO_LONG = ascii("HTTP/1.1 414 URI Too Long\r\nServer: NIOServer\r\nContent-Type: text/plain\r\n");
+    private static final byte[] TOO_LARGE = ascii("HTTP/1.1 413 Content Too Large\r\nServer: NIOServer\r\nContent-Type: text/plain\r\n");
+    private static final byte[] HEADERS_TOO_LARGE = ascii("HTTP/1.1 431 Request Header Fields Too Large\r\nServer: NIOServer\r\nContent-Type: text/plain\r\n");
+    private static final byte[] NOT_IMPLEMENTED = ascii("HTTP/1.1 501 Not Implemented\r\nServer: NIOServer\r\nContent-Type: text/plain\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] UPPER_PREFIX = ascii("SERVER RESPONSE: ");
+    private static final byte[] UPPER_MIDDLE = ascii(" (Processed at ");
+    private static final byte[] UPPER_SUFFIX = ascii(")\n");
+
+    private static final byte[] GET = ascii("GET ");
+    private static final byte[] POST = ascii("POST ");
+    // Methods we know but don't serve get 405, anything else 501 (RFC 9110 section 9.1)
+    private static final byte[][] OTHER_METHODS = {
+            ascii("HEAD "), ascii("PUT "), ascii("DELETE "), ascii("CONNECT "),
+            ascii("OPTIONS "), ascii("TRACE "), ascii("PATCH ")
+    };
+    private static final byte[] HTTP_1_ = ascii("HTTP/1.");
+    private static final byte[] PATH_UPPER = ascii("/upper");
+    private static final byte[] PATH_ECHO = ascii("/echo");
+    private static final byte[] PARAM_MSG = ascii("msg=");
+    private static final byte[] HEADER_CONTENT_LENGTH = ascii("content-length");
+    private static final byte[] HEADER_CONNECTION = ascii("connection");
+    private static final byte[] HEADER_TRANSFER_ENCODING = ascii("transfer-encoding");
+    private static final byte[] TOKEN_CLOSE = ascii("close");
+    private static final byte[] TOKEN_KEEP_ALIVE = ascii("keep-alive");
+
+    // IMF-fixdate as required for the Date header (RFC 1123 with a two-digit day)
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("'Date: 'EEE, dd MMM yyyy HH:mm:ss 'GMT\r\n'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final ConnectionTable connections;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);  // Shared by all connections
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE); // Responses of one read, shared as well
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+
+    private byte[] dateLine;     // "Date: ...\r\n" of the current second
+    private long dateSecond = -1;
+    private long now;            // System.currentTimeMillis() of the current read, also the "Processed at" time
+    private long selectTime;     // NIOServer's System.nanoTime() of the current wakeup, for the connection table
+
+    // The request being parsed. Fields rather than an object so parsing allocates nothing.
+    private boolean post;
+    private int targetStart;
+    private int targetEnd;
+    private int contentLength;
+    private boolean keepAlive;
+    private boolean http10;
+    private byte[] errorStatus; // Non-null when the head was rejected
+
+    public HttpCodec(ConnectionTable connections) {
+        this.connections = connections;
+    }
+
+    /**
+     * Handles OP_READ: reads what is available and answers every complete request in it.
+     * Returns the number of bytes read, or CLOSE.
+     */
+    public int read(SelectionKey key, int id, long selectTime) throws IOException {
+        this.selectTime = selectTime;
+        if (connections.pendingWrite(id) != null) {
+            // Re-enabled by the rate limiter while a response is still parked; wait for it to drain
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            return 0;
+        }
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer in = connections.pendingRead(id);
+        boolean pooled = in != null;
+        if (!pooled) {
+            in = readBuffer;
+            in.clear();
+        }
+        int bytesRead = channel.read(in);
+        if (bytesRead == -1) {
+            return CLOSE;
+        }
+        if (bytesRead == 0) {
+            return 0;
+        }
+        in.flip();
+        int result = process(key, id, in);
+        if (result == CLOSE) {
+            return CLOSE;
+        }
+        keepRemainder(id, in, pooled);
+        return bytesRead;
+    }
+
+    /**
+     * Handles OP_WRITE: flushes the parked response and, once it is out, answers the
+     * pipelined requests that arrived in the meantime. Returns 0 or CLOSE.
+     */
+    public int write(SelectionKey key, int id, long selectTime) throws IOException {
+        this.selectTime = selectTime;
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer pending = connections.pendingWrite(id);
+        if (pending != null) {
+            connections.recordWrite(id, channel.write(pending), selectTime);
+            if (pending.hasRemaining()) {
+                return 0;
+            }
+            connections.setPendingWrite(id, null);
+            returnBuffer(pending);
+        }
+        if (connections.hasFlag(id, ConnectionTable.FLAG_CLOSE_AFTER_WRITE)) {
+            return CLOSE;
+        }
+        int ops = key.interestOps() & ~SelectionKey.OP_WRITE;
+        if (!connections.hasFlag(id, ConnectionTable.FLAG_READ_PAUSED)) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+
+        ByteBuffer in = connections.pendingRead(id);
+        if (in != null) {
+            in.flip();
+            if (process(key, id, in) == CLOSE) {
+                return CLOSE;
+            }
+            keepRemainder(id, in, true);
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the pooled buffers of a connection that is being closed.
+     */
+    public void release(int id) {
+        ByteBuffer in = connections.pendingRead(id);
+        if (in != null) {
+            connections.setPendingRead(id, null);
+            returnBuffer(in);
+        }
+        ByteBuffer out = connections.pendingWrite(id);
+        if (out != null) {
+            connections.setPendingWrite(id, null);
+            returnBuffer(out);
+        }
+    }
+
+    /**
+     * Answers the complete requests in the readable bytes of in, advancing its position
+     * past them. Stops early when the socket can't take more or the connection is closing.
+     */
+    private int process(SelectionKey key, int id, ByteBuffer in) throws IOException {
+        now = System.currentTimeMillis();
+        if (now / 1000 != dateSecond) {
+            dateSecond = now / 1000;
+            dateLine = ascii(DATE_FORMAT.format(Instant.ofEpochSecond(dateSecond)));
+        }
+        byte[] a = in.array();
+        ByteBuffer out = writeBuffer;
+        out.clear();
+        boolean close = false;
+
+        while (!close && in.hasRemaining()) {
+            int start = in.position();
+            int limit = in.limit();
+            int mark = connections.readMark(id);
+            int headEnd = findHeadEnd(a, Math.max(start, start + mark - 3), limit);
+            if (headEnd < 0) {
+                if (limit - start >= BUFFER_SIZE) {
+                    errorStatus = HEADERS_TOO_LARGE;
+                    close = true;
+                    break;
+                }
+                connections.setReadMark(id, limit - start); // Resume scanning here when more bytes arrive
+                break;
+            }
+            parseHead(a, start, headEnd);
+            if (errorStatus == null && headEnd - start + contentLength > BUFFER_SIZE) {
+                errorStatus = TOO_LARGE;
+            }
+            if (errorStatus != null) {
+                close = true;
+                break;
+            }
+            if (headEnd + contentLength > limit) {
+                // Head is complete, wait for the body. The next scan starts on the blank line again.
+                connections.setReadMark(id, headEnd - start - 1);
+                break;
+            }
+
+            if (out.remaining() < MAX_RESPONSE && !flush(key, id, out)) {
+                return 0; // Response parked; the rest of the pipeline is answered once it drains
+            }
+            respond(out, a, headEnd, headEnd + contentLength);
+            in.position(headEnd + contentLength);
+            connections.setReadMark(id, 0);
+            close = !keepAlive;
+        }
+
+        if (close) {
+            connections.setFlag(id, ConnectionTable.FLAG_CLOSE_AFTER_WRITE);
+            in.position(in.limit()); // Anything after the last answered request is dropped
+            if (errorStatus != null) {
+                if (out.remaining() < MAX_STATUS_RESPONSE && !flush(key, id, out)) {
+                    // No room behind the parked responses: close without a status once they drain
+                    return 0;
+                }
+                writeStatus(out, errorStatus);
+            }
+        }
+        if (out.position() > 0 && !flush(key, id, out)) {
+            return 0;
+        }
+        return close ? CLOSE : 0;
+    }
+
+    /**
+     * Writes the responses in out. When the socket doesn't take them all, the rest is
+     * parked in a pooled buffer, reads stop and OP_WRITE takes over; returns false then.
+     */
+    private boolean flush(SelectionKey key, int id, ByteBuffer out) throws IOException {
+        out.flip();
+        connections.recordWrite(id, ((SocketChannel) key.channel()).write(out), selectTime);
+        if (out.hasRemaining()) {
+            ByteBuffer pending = takeBuffer();
+            pending.put(out).flip();
+            connections.setPendingWrite(id, pending);
+            key.interestOps((key.interestOps() & ~SelectionKey.OP_READ) | SelectionKey.OP_WRITE);
+            return false;
+        }
+        out.clear();
+        return true;
+    }
+
+    /**
+     * Keeps the unparsed bytes of in for the next read: compacted in place when in is the
+     * connection's pooled buffer, copied into one when it is the shared read buffer.
+     */
+    private void keepRemainder(int id, ByteBuffer in, boolean pooled) {
+        if (in.hasRemaining()) {
+            if (pooled) {
+                in.compact();
+            } else {
+                ByteBuffer buffer = takeBuffer();
+                buffer.put(in);
+                connections.setPendingRead(id, buffer);
+            }
+        } else if (pooled) {
+            connections.setPendingRead(id, null);
+            returnBuffer(in);
+        }
+    }
+
+    /**
+     * Parses the request line and the headers this server cares about between start and
+     * headEnd (just past the blank line) into the request fields.
+     */
+    private void parseHead(byte[] a, int start, int headEnd) {
+        errorStatus = null;
+        contentLength = 0;
+        int p = start;
+        while (p + 1 < headEnd && a[p] == '\r' && a[p + 1] == '\n') {
+            p += 2; // Empty lines before a request are allowed (RFC 9112 section 2.2)
+        }
+        if (startsWith(a, p, headEnd, GET)) {
+            post = false;
+            p += GET.length;
+        } else if (startsWith(a, p, headEnd, POST)) {
+            post = true;
+            p += POST.length;
+        } else {
+            errorStatus = NOT_IMPLEMENTED;
+            for (byte[] method : OTHER_METHODS) {
+                if (startsWith(a, p, headEnd, method)) {
+                    errorStatus = METHOD_NOT_ALLOWED;
+                    break;
+                }
+            }
+            return;
+        }
+        targetStart = p;
+        while (p < headEnd && a[p] != ' ' && a[p] != '\r') {
+            p++;
+        }
+        targetEnd = p;
+        if (targetEnd - targetStart > MAX_BODY) {
+            errorStatus = URI_TOO_LONG; // A GET message ends up in the response like a body does
+            return;
+        }
+        // " HTTP/1.x\r\n"
+        if (targetEnd == targetStart || p + 1 + HTTP_1_.length + 3 > headEnd || a[p] != ' '
+                || !startsWith(a, p + 1, headEnd, HTTP_1_) || a[p + 9] != '\r' || a[p + 10] != '\n') {
+            errorStatus = BAD_REQUEST;
+            return;
+        }
+        byte minor = a[p + 8];
+        if (minor != '0' && minor != '1') {
+            errorStatus = BAD_REQUEST;
+            return;
+        }
+        http10 = minor == '0';
+        keepAlive = !http10;
+        p += 11;
+
+        boolean sawContentLength = false;
+        while (p < headEnd - 2) { // The final CRLF ends the head
+            int lineEnd = p;
+            while (a[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            int colon = p;
+            while (colon < lineEnd && a[colon] != ':') {
+                colon++;
+            }
+            if (colon == lineEnd || colon == p) {
+                errorStatus = BAD_REQUEST;
+                return;
+            }
+            int valueStart = colon + 1;
+            while (valueStart < lineEnd && (a[valueStart] == ' ' || a[valueStart] == '\t')) {
+                valueStart++;
+            }
+            int valueEnd = lineEnd;
+            while (valueEnd > valueStart && (a[valueEnd - 1] == ' ' || a[valueEnd - 1] == '\t')) {
+                valueEnd--;
+            }
+
+            if (equalsIgnoreCase(a, p, colon, HEADER_CONTENT_LENGTH)) {
+                int length = parseLength(a, valueStart, valueEnd);
+                if (length < 0 || (sawContentLength && length != contentLength)) {
+                    errorStatus = BAD_REQUEST;
+                    return;
+                }
+                if (length > MAX_BODY) {
+                    errorStatus = TOO_LARGE;
+                    return;
+                }
+                contentLength = length;
+                sawContentLength = true;
+            } else if (equalsIgnoreCase(a, p, colon, HEADER_CONNECTION)) {
+                if (equalsIgnoreCase(a, valueStart, valueEnd, TOKEN_CLOSE)) {
+                    keepAlive = false;
+                } else if (equalsIgnoreCase(a, valueStart, valueEnd, TOKEN_KEEP_ALIVE)) {
+                    keepAlive = true;
+                }
+            } else if (equalsIgnoreCase(a, p, colon, HEADER_TRANSFER_ENCODING)) {
+                errorStatus = NOT_IMPLEMENTED; // No chunked request bodies
+                return;
+            }
+            p = lineEnd + 2;
+        }
+    }
+
+    /**
+     * Appends the response to the parsed request, whose body is a[bodyStart, bodyEnd).
+     */
+    private void respond(ByteBuffer out, byte[] a, int bodyStart, int bodyEnd) {
+        int pathEnd = targetStart;
+        while (pathEnd < targetEnd && a[pathEnd] != '?') {
+            pathEnd++;
+        }
+        boolean upper = equals(a, targetStart, pathEnd, PATH_UPPER);
+        if (!upper && !equals(a, targetStart, pathEnd, PATH_ECHO)) {
+            writeStatus(out, NOT_FOUND);
+            return;
+        }
+
+        int msgStart = bodyStart;
+        int msgEnd = bodyEnd;
+        if (!post) {
+            msgStart = msgEnd = findParam(a, pathEnd, targetEnd);
+            while (msgEnd < targetEnd && a[msgEnd] != '&') {
+                msgEnd++;
+            }
+        }
+        int msgLength = msgEnd - msgStart;
+
+        if (!upper) {
+            writeHead(out, OK, msgLength);
+            out.put(a, msgStart, msgLength);
+            return;
+        }
+        writeHead(out, OK, UPPER_PREFIX.length + msgLength + UPPER_MIDDLE.length + digits(now) + UPPER_SUFFIX.length);
+        out.put(UPPER_PREFIX);
+        byte[] o = out.array();
+        int q = out.position();
+        for (int i = msgStart; i < msgEnd; i++) {
+            byte b = a[i];
+            o[q++] = b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+        }
+        out.position(q);
+        out.put(UPPER_MIDDLE);
+        putDecimal(out, now);
+        out.put(UPPER_SUFFIX);
+    }
+
+    private void writeStatus(ByteBuffer out, byte[] status) {
+        // The reason phrase doubles as the body: skip "HTTP/1.1 NNN " and stop at the first CRLF
+        int reasonStart = 13;
+        int reasonEnd = reasonStart;
+        while (status[reasonEnd] != '\r') {
+            reasonEnd++;
+        }
+        writeHead(out, status, reasonEnd - reasonStart + 1);
+        out.put(status, reasonStart, reasonEnd - reasonStart).put((byte) '\n');
+    }
+
+    private void writeHead(ByteBuffer out, byte[] status, int length) {
+        out.put(status).put(dateLine).put(CONTENT_LENGTH);
+        putDecimal(out, length);
+        out.put(CRLF);
+        if (!keepAlive || errorStatus != null) {
+            out.put(CONNECTION_CLOSE);
+        } else if (http10) {
+            out.put(CONNECTION_KEEP_ALIVE);
+        }
+        out.put(CRLF);
+    }
+
+    /**
+     * Index just past the first "\r\n\r\n" in a[from, limit), or -1.
+     */
+    private static int findHeadEnd(byte[] a, int from, int limit) {
+        for (int i = from; i + 3 < limit; i++) {
+            if (a[i + 3] == '\n' && a[i] == '\r' && a[i + 1] == '\n' && a[i + 2] == '\r') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Start of the msg= value in the query of the target, or targetEnd if there is none.
+     */
+    private static int findParam(byte[] a, int pathEnd, int targetEnd) {
+        int p = pathEnd + 1; // Past '?'
+        while (p < targetEnd) {
+            if (startsWith(a, p, targetEnd, PARAM_MSG)) {
+                return p + PARAM_MSG.length;
+            }
+            while (p < targetEnd && a[p] != '&') {
+                p++;
+            }
+            p++;
+        }
+        return targetEnd;
+    }
+
+    private static int parseLength(byte[] a, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            if (a[i] < '0' || a[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (a[i] - '0');
+        }
+        return value;
+    }
+
+    private static boolean startsWith(byte[] a, int from, int limit, byte[] prefix) {
+        if (limit - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (a[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(byte[] a, int from, int to, byte[] expected) {
+        return to - from == expected.length && startsWith(a, from, to, expected);
+    }
+
+    /**
+     * Compares a[from, to) with a lowercase ASCII constant, ignoring case.
+     */
+    private static boolean equalsIgnoreCase(byte[] a, int from, int to, byte[] lowercase) {
+        if (to - from != lowercase.length) {
+            return false;
+        }
+        for (int i = 0; i < lowercase.length; i++) {
+            if ((a[from + i] | 0x20) != lowercase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static void putDecimal(ByteBuffer out, long value) {
+        byte[] o = out.array();
+        int end = out.position() + digits(value);
+        for (int q = end - 1; q >= out.position(); q--) {
+            o[q] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        out.position(end);
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = bufferPool.pollFirst();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE); // Heap buffers: the parser works on array()
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void returnBuffer(ByteBuffer buffer) {
+        if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+            bufferPool.addFirst(buffer);
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -1,5 +1,8 @@
 package com.example.networking.tcp.server;
 
+import com.example.networking.trace.StageTracer;
+import com.example.networking.trace.StageTracer.Stage;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -11,13 +14,31 @@ import java.util.concurrent.*;
 public class NIOMultiThreadedServer {
     private static final int PORT = 12345;
     private static final int BUFFER_SIZE = 1024;
+    // Per-message logging; disable with -Dnio.quiet=true when benchmarking or tracing
+    private static final boolean VERBOSE = !Boolean.getBoolean("nio.quiet");
+    // Per-stage latency tracing of sampled requests; null unless -Dtrace.sampleEvery is set
+    private static final StageTracer TRACER = StageTracer.fromSystemProperties();
 
     // Thread pool for handling messages
     private final ExecutorService workerPool = Executors.newFixedThreadPool(10);
     private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long selectStart; // When the selector last began waiting, only taken when tracing
+    private final int port;
+
+    public NIOMultiThreadedServer() {
+        this(PORT);
+    }
+
+    public NIOMultiThreadedServer(int port) {
+        this.port = port;
+    }
 
     public static void main(String[] args) throws IOException {
-        new NIOMultiThreadedServer().start();
+        if (TRACER != null) {
+            // The loop below never returns, so the final trace report is printed on exit
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(TRACER.report())));
+        }
+        new NIOMultiThreadedServer(args.length > 0 ? Integer.parseInt(args[0]) : PORT).start();
     }
 
     public void start() throws IOException {
@@ -25,13 +46,16 @@ public class NIOMultiThreadedServer {
 
         // Setup the server socket channel
         ServerSocketChannel serverChannel = ServerSocketChannel.open();
-        serverChannel.bind(new InetSocketAddress(PORT));
+        serverChannel.bind(new InetSocketAddress(port));
         serverChannel.configureBlocking(false);
         serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
-        System.out.println("NIO server started on port " + PORT);
+        System.out.println("NIO server started on port " + port);
 
         while (true) {
+            if (TRACER != null) {
+                selectStart = System.nanoTime();
+            }
             selector.select(); // Blocking until I/O events occur
             Set<SelectionKey> selectedKeys = selector.selectedKeys();
             Iterator<SelectionKey> iter = selectedKeys.iterator();
@@ -60,16 +84,24 @@ public class NIOMultiThreadedServer {
         SocketChannel client = server.accept();
         client.configureBlocking(false);
         client.register(selector, SelectionKey.OP_READ);
-        System.out.println("Accepted connection from " + client.getRemoteAddress());
+        if (VERBOSE) {
+            System.out.println("Accepted connection from " + client.getRemoteAddress());
+        }
     }
 
     private void read(SelectionKey key) throws IOException {
         SocketChannel client = (SocketChannel) key.channel();
+        StageTracer.Trace trace = TRACER != null ? TRACER.begin(selectStart) : null;
+        if (trace != null) {
+            trace.mark(Stage.WAIT);
+        }
         buffer.clear();
         int read = client.read(buffer);
 
         if (read == -1) {
-            System.out.println("Client disconnected: " + client.getRemoteAddress());
+            if (VERBOSE) {
+                System.out.println("Client disconnected: " + client.getRemoteAddress());
+            }
             client.close();
             key.cancel();
             return;
@@ -78,20 +110,36 @@ public class NIOMultiThreadedServer {
         buffer.flip();
         byte[] data = new byte[buffer.limit()];
         buffer.get(data);
+        if (trace != null) {
+            trace.mark(Stage.DECODE);
+            trace.label(client.getRemoteAddress());
+        }
 
         // Delegate message processing to worker thread
-        workerPool.submit(() -> processMessage(client, data));
+        workerPool.submit(() -> processMessage(client, data, trace));
     }
 
-    private void processMessage(SocketChannel client, byte[] data) {
+    private void processMessage(SocketChannel client, byte[] data, StageTracer.Trace trace) {
+        if (trace != null) {
+            trace.mark(Stage.QUEUE); // Time the task spent in the worker pool's queue
+        }
         String msg = new String(data).trim();
-        System.out.println("Received: " + msg);
+        if (VERBOSE) {
+            System.out.println("Received: " + msg);
+        }
 
         String response = "[Echo] " + msg+"\n";
         ByteBuffer responseBuffer = ByteBuffer.wrap(response.getBytes());
+        if (trace != null) {
+            trace.mark(Stage.HANDLER);
+        }
 
         try {
             client.write(responseBuffer);
+            if (trace != null) {
+                trace.mark(Stage.FLUSH);
+                TRACER.finish(trace);
+            }
         } catch (IOException e) {
             System.err.println("Failed to write to client: " + e.getMessage());
         }
@@ -0,0 +1,309 @@
+package com.example.networking.tcp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * NIOProxy is the proxy mode of NIOServer. Every accepted client is paired with an
+ * upstream channel from a BackendPool and bytes are relayed in both directions
+ * without decoding. All reads go through one shared direct buffer and are written
+ * straight to the other side. Only when the other side cannot take everything is
+ * the remainder parked in a pooled direct buffer. Reading from the source then
+ * stops until that buffer drains, so a slow side backpressures the fast one.
+ * EOF on one side is passed on as a half-close of the other (shutdownOutput), and the
+ * session closes once both directions have finished. Upstream channels are never
+ * handed from one client to the next; BackendPool only supplies pre-connected spares.
+ * Everything runs on the selector thread.
+ */
+public class NIOProxy {
+    private static final int RELAY_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256; // Pending buffers kept for reuse
+
+    private final Selector selector;
+    private final BackendPool backends;
+    private final ByteBuffer relayBuffer = ByteBuffer.allocateDirect(RELAY_BUFFER_SIZE); // Shared by all connections
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+
+    /**
+     * One side of a relayed connection. The attachment of its SelectionKey.
+     */
+    static class Endpoint {
+        final SocketChannel channel;
+        SelectionKey key;
+        Endpoint peer;
+        Session session;
+        ByteBuffer pending; // Bytes read from the peer that this endpoint could not take yet
+        boolean inputDone;  // This side sent EOF
+        boolean outputShut; // The peer's EOF has been passed on to this side
+
+        Endpoint(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * A client paired with its upstream connection.
+     */
+    static class Session {
+        Endpoint client;
+        Endpoint upstream;
+        BackendPool.Backend backend;
+        boolean closed; // Keys of a closed session may still be in the current selected set
+    }
+
+    /**
+     * Attachment of a spare upstream channel, so its key is recognized as proxy-owned.
+     */
+    static final class SpareUpstream extends Endpoint {
+        final BackendPool.Backend backend;
+        boolean connecting = true;
+
+        SpareUpstream(SocketChannel channel, BackendPool.Backend backend) {
+            super(channel);
+            this.backend = backend;
+        }
+    }
+
+    public NIOProxy(Selector selector, BackendPool backends) {
+        this.selector = selector;
+        this.backends = backends;
+    }
+
+    /**
+     * Pairs a newly accepted client with an upstream connection, then tops up the
+     * backend's spares for the next client. Client reads stay disabled until the
+     * upstream connect completes.
+     */
+    public void accept(SocketChannel clientChannel) throws IOException {
+        Session session = new Session();
+        session.backend = backends.choose(); // Counted as active from here, so every failure below must release it
+        session.client = new Endpoint(clientChannel);
+        SocketChannel upstreamChannel = null;
+        try {
+            upstreamChannel = backends.takeSpare(session.backend);
+            boolean spare = upstreamChannel != null;
+            if (!spare) {
+                upstreamChannel = backends.open(session.backend);
+            }
+            session.upstream = new Endpoint(upstreamChannel);
+            link(session);
+
+            session.client.key = clientChannel.register(selector, 0, session.client);
+            if (spare || upstreamChannel.isConnected()) {
+                // Re-registering an already registered channel just swaps its interest and attachment
+                session.upstream.key = upstreamChannel.register(selector, SelectionKey.OP_READ, session.upstream);
+                connected(session);
+            } else {
+                session.upstream.key = upstreamChannel.register(selector, SelectionKey.OP_CONNECT, session.upstream);
+            }
+        } catch (IOException | RuntimeException e) {
+            session.closed = true;
+            closeQuietly(clientChannel);
+            if (upstreamChannel != null) {
+                closeQuietly(upstreamChannel);
+            }
+            backends.release(session.backend);
+            // E.g. an unresolvable backend address; either way it's this client that fails, not the server
+            throw e instanceof IOException io ? io : new IOException(e);
+        }
+        openSpares(session.backend);
+    }
+
+    /**
+     * Handles a ready key owned by the proxy. Errors close the affected session.
+     */
+    public void process(SelectionKey key) {
+        Endpoint endpoint = (Endpoint) key.attachment();
+        if (endpoint instanceof SpareUpstream spare) {
+            processSpare(key, spare);
+            return;
+        }
+        Session session = endpoint.session;
+        if (session.closed) {
+            return;
+        }
+        try {
+            if (key.isConnectable()) {
+                if (endpoint.channel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    connected(session);
+                }
+                return;
+            }
+            if (key.isWritable()) {
+                flush(endpoint);
+            }
+            if (!session.closed && key.isValid() && key.isReadable()) {
+                relay(endpoint, endpoint.peer);
+            }
+        } catch (IOException e) {
+            System.err.println("Proxy relay error for backend " + session.backend + ": " + e.getMessage());
+            closeSession(session);
+        }
+    }
+
+    private void openSpares(BackendPool.Backend backend) {
+        try {
+            SocketChannel channel;
+            while ((channel = backends.openSpare(backend)) != null) {
+                SpareUpstream spare = new SpareUpstream(channel, backend);
+                if (channel.isConnected()) {
+                    spare.connecting = false;
+                    backends.spareConnected(backend, channel, true);
+                    channel.register(selector, SelectionKey.OP_READ, spare);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, spare);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not open a spare connection to " + backend + ": " + e.getMessage());
+        }
+    }
+
+    private void processSpare(SelectionKey key, SpareUpstream spare) {
+        if (spare.connecting) {
+            spare.connecting = false;
+            try {
+                if (spare.channel.finishConnect()) {
+                    backends.spareConnected(spare.backend, spare.channel, true);
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                spare.connecting = true; // Not done yet, wait for the next OP_CONNECT
+                return;
+            } catch (IOException e) {
+                backends.spareConnected(spare.backend, spare.channel, false);
+                closeQuietly(spare.channel);
+                return;
+            }
+        }
+        // A spare should stay silent until a client gets it; readiness means EOF or stray bytes, so drop it
+        backends.evictSpare(spare.backend, spare.channel);
+        closeQuietly(spare.channel);
+    }
+
+    private void connected(Session session) {
+        session.client.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Reads what is available from the source and writes it straight through to the destination.
+     */
+    private void relay(Endpoint source, Endpoint destination) throws IOException {
+        relayBuffer.clear();
+        int read = source.channel.read(relayBuffer);
+        if (read == -1) {
+            endOfStream(source);
+            return;
+        }
+        if (read == 0) {
+            return;
+        }
+        relayBuffer.flip();
+        destination.channel.write(relayBuffer);
+        if (relayBuffer.hasRemaining()) {
+            // Destination is full: park the rest and stop reading the source until it drains
+            destination.pending = takeBuffer();
+            destination.pending.put(relayBuffer).flip();
+            source.key.interestOps(source.key.interestOps() & ~SelectionKey.OP_READ);
+            destination.key.interestOps(destination.key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void flush(Endpoint destination) throws IOException {
+        ByteBuffer pending = destination.pending;
+        if (pending != null) {
+            destination.channel.write(pending);
+            if (pending.hasRemaining()) {
+                return;
+            }
+            destination.pending = null;
+            returnBuffer(pending);
+        }
+        destination.key.interestOps(destination.key.interestOps() & ~SelectionKey.OP_WRITE);
+        Endpoint source = destination.peer;
+        if (source.inputDone) {
+            shutdownOutput(destination); // The source's EOF was waiting for its last bytes to drain
+        } else {
+            // Resume reading the side that was paused for backpressure
+            source.key.interestOps(source.key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * The source sent EOF, which may only be a half-close: stop reading it and pass the
+     * EOF on once everything it sent has been written, while the other direction keeps flowing.
+     */
+    private void endOfStream(Endpoint source) throws IOException {
+        source.inputDone = true;
+        source.key.interestOps(source.key.interestOps() & ~SelectionKey.OP_READ);
+        if (source.peer.pending == null) {
+            shutdownOutput(source.peer);
+        }
+    }
+
+    private void shutdownOutput(Endpoint destination) throws IOException {
+        destination.channel.shutdownOutput();
+        destination.outputShut = true;
+        Session session = destination.session;
+        if (session.client.outputShut && session.upstream.outputShut) {
+            closeSession(session); // Both directions have reached EOF and been delivered
+        }
+    }
+
+    /**
+     * Closes both channels of the session and releases it from its backend, once.
+     */
+    private void closeSession(Session session) {
+        if (session.closed) {
+            return;
+        }
+        session.closed = true;
+        closeQuietly(session.client.channel);
+        releaseBuffer(session.client);
+        closeQuietly(session.upstream.channel);
+        releaseBuffer(session.upstream);
+        backends.release(session.backend);
+    }
+
+    private static void link(Session session) {
+        session.client.session = session;
+        session.upstream.session = session;
+        session.client.peer = session.upstream;
+        session.upstream.peer = session.client;
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = bufferPool.pollFirst();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(RELAY_BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void returnBuffer(ByteBuffer buffer) {
+        if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+            bufferPool.addFirst(buffer);
+        }
+    }
+
+    private void releaseBuffer(Endpoint endpoint) {
+        if (endpoint.pending != null) {
+            returnBuffer(endpoint.pending);
+            endpoint.pending = null;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close(); // Also cancels its selection key
+        } catch (IOException e) {
+            System.err.println("Error closing proxied channel: " + e.getMessage());
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.example.networking.tcp.server;
 
+import com.example.networking.ratelimit.RateLimiter;
+import com.example.networking.trace.StageTracer;
+import com.example.networking.trace.StageTracer.Stage;
+
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException; // Import this
@@ -8,33 +13,73 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Server class uses Java NIO for non-blocking I/O to handle
  * multiple client connections efficiently with a single thread (or a few).
  * It uses a Selector to monitor channels for readiness events.
+ *
+ * Usage: NIOServer [port] [--http] [--proxy host:port,... [--balance round-robin|least-connections]]
+ * With --http the server speaks HTTP/1.1 (keep-alive, pipelining) through HttpCodec
+ * instead of the line protocol. With --proxy the server does not answer itself but
+ * relays every client to one of the backends through NIOProxy.
  */
 public class NIOServer {
     private static final int PORT = 12345; // Port number for the server
     private static final int BUFFER_SIZE = 1024; // Size of the read/write buffer
+    // Initial connection table size; it doubles as needed, so this only avoids early regrowth
+    private static final int INITIAL_CONNECTIONS = Integer.getInteger("nio.initialConnections", 1024);
+    // Per-connection and per-message logging; disable with -Dnio.quiet=true when benchmarking
+    private static final boolean VERBOSE = !Boolean.getBoolean("nio.quiet");
+    // Per-source limits; null (no check at all) unless -Dratelimit.* is set
+    private static final RateLimiter RATE_LIMITER = RateLimiter.fromSystemProperties();
+    // Per-stage latency tracing of sampled requests; null (no stamps at all) unless -Dtrace.sampleEvery is set
+    private static final StageTracer TRACER = StageTracer.fromSystemProperties();
+
+    private final int port;
+    private final BackendPool backendPool; // Non-null when running in proxy mode
+    private final boolean http;
+    private NIOProxy proxy;
+    private HttpCodec httpCodec; // Non-null when running in HTTP mode
 
     private Selector selector; // Monitors channels for I/O events
     private ServerSocketChannel serverChannel; // Channel for accepting new connections
     private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE); // Buffer for reading data from clients
 
-    // A map to store outgoing data for each client.
-    // Key: SocketChannel, Value: ByteBuffer containing data to be sent.
-    private Map<SocketChannel, ByteBuffer> writeBuffers = new ConcurrentHashMap<>();
+    // Per-connection state indexed by the int id attached to each client's SelectionKey:
+    // flags ("close after write", "read paused"), unflushed responses, timestamps and counters.
+    private final ConnectionTable connections = new ConnectionTable(INITIAL_CONNECTIONS);
+
+    // Connections whose reads are paused by the rate limiter, ordered by when they may resume
+    private final PriorityQueue<PausedRead> pausedReads = new PriorityQueue<>(Comparator.comparingLong(PausedRead::resumeAt));
+
+    private record PausedRead(SelectionKey key, long resumeAt) {}
+
+    private long selectTime; // System.nanoTime() right after the last select() returned
+    private long selectStart; // System.nanoTime() right before it, only taken when tracing
 
     private volatile boolean running = true; // Flag to control server's running state
 
     public NIOServer() {
+        this(PORT, null);
+    }
+
+    public NIOServer(int port, BackendPool backendPool) {
+        this(port, backendPool, false);
+    }
+
+    public NIOServer(int port, BackendPool backendPool, boolean http) {
         // No ExecutorService for client handling directly in this non-blocking model,
         // as a single thread handles all I/O events.
         // If heavy processing is needed, a separate processing thread pool would be used.
+        this.port = port;
+        this.backendPool = backendPool;
+        this.http = http;
     }
 
     /**
@@ -51,8 +96,16 @@ public class NIOServer {
             serverChannel.configureBlocking(false); // Set to non-blocking mode
 
             // 3. Bind the server socket to the port
-            serverChannel.socket().bind(new InetSocketAddress(PORT));
-            System.out.println("Non-blocking Server started on port " + PORT);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            if (backendPool != null) {
+                proxy = new NIOProxy(selector, backendPool);
+                System.out.println("Non-blocking proxy started on port " + port);
+            } else if (http) {
+                httpCodec = new HttpCodec(connections);
+                System.out.println("Non-blocking HTTP/1.1 server started on port " + port);
+            } else {
+                System.out.println("Non-blocking Server started on port " + port);
+            }
 
             // 4. Register the server channel with the selector for ACCEPT events
             serverChannel.register(selector, SelectionKey.OP_ACCEPT);
@@ -65,8 +118,24 @@ public class NIOServer {
 
             // Main server loop: process I/O events
             while (running) {
-                // This call blocks until at least one registered channel is ready for an event
-                selector.select();
+                // This call blocks until at least one registered channel is ready for an event,
+                // or until the next rate-limited connection may read again
+                if (TRACER != null) {
+                    selectStart = System.nanoTime();
+                }
+                if (pausedReads.isEmpty()) {
+                    selector.select();
+                } else {
+                    long waitNanos = pausedReads.peek().resumeAt() - System.nanoTime();
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                    resumePausedReads();
+                }
+
+                if (!running) {
+                    break; // Woken up by stop(), which may already be closing the selector
+                }
+
+                selectTime = System.nanoTime(); // One clock read per wakeup, shared by every key in this batch
 
                 // Get the set of keys representing channels that are ready for new events
                 Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
@@ -82,10 +151,17 @@ public class NIOServer {
                         continue;
                     }
 
+                    if (key.attachment() instanceof NIOProxy.Endpoint) {
+                        proxy.process(key); // Relayed connection, the proxy handles its own errors
+                        continue;
+                    }
+
                     try {
                         if (key.isAcceptable()) {
                             // A new connection is ready to be accepted
                             acceptConnection(key);
+                        } else if (httpCodec != null) {
+                            processHttp(key);
                         } else if (key.isReadable()) {
                             // A channel is ready for reading data
                             readData(key);
@@ -112,7 +188,7 @@ public class NIOServer {
                 }
             }
         } catch (IOException e) {
-            System.err.println("Could not start non-blocking server on port " + PORT + ": " + e.getMessage());
+            System.err.println("Could not start non-blocking server on port " + port + ": " + e.getMessage());
             e.printStackTrace(); // Print stack trace for server startup errors
             running = false;
         } finally {
@@ -130,9 +206,21 @@ public class NIOServer {
         SocketChannel clientChannel = server.accept(); // Accept the connection
         if (clientChannel != null) {
             clientChannel.configureBlocking(false); // Set client channel to non-blocking
+            if (proxy != null) {
+                try {
+                    proxy.accept(clientChannel);
+                } catch (IOException e) {
+                    System.err.println("Could not open upstream connection: " + e.getMessage());
+                    clientChannel.close();
+                }
+                return;
+            }
             // Register the new client channel with the selector for READ events
-            clientChannel.register(selector, SelectionKey.OP_READ);
-            System.out.println("Client connected: " + clientChannel.getRemoteAddress());
+            SelectionKey clientKey = clientChannel.register(selector, SelectionKey.OP_READ);
+            connections.allocate(clientKey, selectTime);
+            if (VERBOSE) {
+                System.out.println("Client connected: " + clientChannel.getRemoteAddress());
+            }
         }
     }
 
@@ -143,45 +231,87 @@ public class NIOServer {
      */
     private void readData(SelectionKey key) throws IOException {
         SocketChannel clientChannel = (SocketChannel) key.channel();
+        int id = ConnectionTable.idOf(key);
+        // A sampled request's time starts when the selector began waiting for it
+        StageTracer.Trace trace = TRACER != null ? TRACER.begin(selectStart) : null;
+        if (trace != null) {
+            trace.mark(Stage.WAIT);
+        }
         readBuffer.clear(); // Clear the buffer for new data
 
         int bytesRead = clientChannel.read(readBuffer); // Read data into the buffer
 
         if (bytesRead == -1) {
             // Client has closed the connection (EOF)
-            System.out.println("Client disconnected cleanly: " + clientChannel.getRemoteAddress());
+            if (VERBOSE) {
+                System.out.println("Client disconnected cleanly: " + clientChannel.getRemoteAddress());
+            }
             closeClientChannel(clientChannel, key);
             return;
         }
 
         if (bytesRead > 0) {
+            connections.recordRead(id, bytesRead, selectTime);
+            throttle(key, id, bytesRead);
+
             readBuffer.flip(); // Prepare buffer for reading (limit = current position, position = 0)
             // Convert ByteBuffer to String, assuming single line per read for simplicity.
             byte[] data = new byte[bytesRead];
             readBuffer.get(data);
             String clientMessage = new String(data).trim(); // Convert bytes to string
+            if (trace != null) {
+                trace.mark(Stage.DECODE);
+                trace.label(clientChannel.getRemoteAddress());
+            }
 
-            System.out.println("Received from client " + clientChannel.getRemoteAddress() + ": " + clientMessage);
+            if (VERBOSE) {
+                System.out.println("Received from client " + clientChannel.getRemoteAddress() + ": " + clientMessage);
+            }
 
             // Process the message and prepare a response
             String responseMessage = "SERVER RESPONSE: " + clientMessage.toUpperCase() + " (Processed at " + System.currentTimeMillis() + ")\n"; // Add newline!
             ByteBuffer responseBuffer = ByteBuffer.wrap(responseMessage.getBytes());
+            if (trace != null) {
+                trace.mark(Stage.HANDLER);
+            }
 
-            // Store the response for writing
-            writeBuffers.put(clientChannel, responseBuffer);
-
-            // Attach information for "bye" handling
+            // Check for "bye" so the connection is closed once its response is out
             if ("bye".equalsIgnoreCase(clientMessage)) {
-                key.attach(true); // Attach a boolean true to indicate "close after write"
-                System.out.println("Client " + clientChannel.getRemoteAddress() + " sent 'bye'. Preparing to close after response.");
-            } else {
-                key.attach(false); // Default to false if not "bye"
+                connections.setFlag(id, ConnectionTable.FLAG_CLOSE_AFTER_WRITE);
+                if (VERBOSE) {
+                    System.out.println("Client " + clientChannel.getRemoteAddress() + " sent 'bye'. Preparing to close after response.");
+                }
             }
 
-            // Register the channel for WRITE events (in addition to READ)
-            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            ByteBuffer pending = connections.pendingWrite(id);
+            if (pending != null) {
+                // An earlier response is still unflushed: queue behind it to keep responses in order.
+                // Reads stop while a response is parked, so this only catches a read that was
+                // already under way. Its trace (if any) stays the pending one, this request's is dropped.
+                ByteBuffer combined = ByteBuffer.allocate(pending.remaining() + responseBuffer.remaining());
+                combined.put(pending).put(responseBuffer).flip();
+                connections.setPendingWrite(id, combined);
+                return;
+            }
 
-            selector.wakeup(); // Important: Wake up the selector immediately
+            // We are on the selector thread, so try to write straight away. Only a response the
+            // socket could not fully take is parked in the table and finished on OP_WRITE.
+            connections.recordWrite(id, clientChannel.write(responseBuffer), selectTime);
+            if (responseBuffer.hasRemaining()) {
+                connections.setPendingWrite(id, responseBuffer);
+                connections.setPendingTrace(id, trace); // Finished once the rest is flushed
+                // Stop reading until it drains: a client that sends but never reads must not
+                // make us buffer responses without bound. TCP flow control then slows it down.
+                key.interestOps((key.interestOps() & ~SelectionKey.OP_READ) | SelectionKey.OP_WRITE);
+                return;
+            }
+            if (trace != null) {
+                trace.mark(Stage.FLUSH);
+                TRACER.finish(trace);
+            }
+            if (connections.hasFlag(id, ConnectionTable.FLAG_CLOSE_AFTER_WRITE)) {
+                closeAfterBye(clientChannel, key);
+            }
         }
     }
 
@@ -192,26 +322,106 @@ public class NIOServer {
      */
     private void writeData(SelectionKey key) throws IOException {
         SocketChannel clientChannel = (SocketChannel) key.channel();
-        ByteBuffer buffer = writeBuffers.get(clientChannel);
+        int id = ConnectionTable.idOf(key);
+        ByteBuffer buffer = connections.pendingWrite(id);
 
         if (buffer != null && buffer.hasRemaining()) {
-            clientChannel.write(buffer); // Write data from the buffer to the channel
+            // Write data from the buffer to the channel
+            connections.recordWrite(id, clientChannel.write(buffer), selectTime);
         }
 
         // Check if all data has been written
         if (buffer == null || !buffer.hasRemaining()) {
             // All data has been written or there was no data to write
-            writeBuffers.remove(clientChannel); // Remove the buffer
+            connections.setPendingWrite(id, null);
+            StageTracer.Trace trace = connections.pendingTrace(id);
+            if (trace != null) {
+                trace.mark(Stage.FLUSH);
+                TRACER.finish(trace);
+                connections.setPendingTrace(id, null);
+            }
 
-            // Remove OP_WRITE interest, as we have nothing more to write for now
-            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            // Remove OP_WRITE interest, as we have nothing more to write for now, and read
+            // again unless the rate limiter paused reading (it resumes them itself)
+            int ops = key.interestOps() & ~SelectionKey.OP_WRITE;
+            if (!connections.hasFlag(id, ConnectionTable.FLAG_READ_PAUSED)) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
 
-            // Check attachment for "bye" and close connection
-            Boolean closeAfterWrite = (Boolean) key.attachment();
-            if (closeAfterWrite != null && closeAfterWrite.booleanValue()) {
-                System.out.println("Closing client " + clientChannel.getRemoteAddress() + " after 'bye' response.");
+            // Check for "bye" and close connection
+            if (connections.hasFlag(id, ConnectionTable.FLAG_CLOSE_AFTER_WRITE)) {
+                closeAfterBye(clientChannel, key);
+            }
+        }
+    }
+
+    /**
+     * Handles a ready client key in HTTP mode; the codec reads, answers and flushes.
+     */
+    private void processHttp(SelectionKey key) throws IOException {
+        SocketChannel clientChannel = (SocketChannel) key.channel();
+        int id = ConnectionTable.idOf(key);
+        if (key.isWritable()) {
+            if (httpCodec.write(key, id, selectTime) == HttpCodec.CLOSE) {
                 closeClientChannel(clientChannel, key);
             }
+            return;
+        }
+        int bytesRead = httpCodec.read(key, id, selectTime);
+        if (bytesRead == HttpCodec.CLOSE) {
+            closeClientChannel(clientChannel, key); // EOF, "Connection: close" or a rejected request
+        } else if (bytesRead > 0) {
+            connections.recordRead(id, bytesRead, selectTime);
+            throttle(key, id, bytesRead);
+        }
+    }
+
+    /**
+     * Charges a read to the rate limiter. Over the limit, the data already read is still
+     * answered and charged, and reading stops until the client has paid off the debt.
+     */
+    private void throttle(SelectionKey key, int id, int bytesRead) throws IOException {
+        if (RATE_LIMITER == null) {
+            return;
+        }
+        InetAddress source = ((InetSocketAddress) ((SocketChannel) key.channel()).getRemoteAddress()).getAddress();
+        long waitNanos = RATE_LIMITER.consume(source, bytesRead, selectTime);
+        if (waitNanos > 0) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            connections.setFlag(id, ConnectionTable.FLAG_READ_PAUSED);
+            pausedReads.add(new PausedRead(key, selectTime + waitNanos));
+        }
+    }
+
+    private void closeAfterBye(SocketChannel clientChannel, SelectionKey key) throws IOException {
+        if (VERBOSE) {
+            System.out.println("Closing client " + clientChannel.getRemoteAddress() + " after 'bye' response.");
+        }
+        closeClientChannel(clientChannel, key);
+    }
+
+    /**
+     * Number of open client connections (excluding proxied ones).
+     */
+    public int openConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Re-enables reads on rate-limited connections whose pause has expired.
+     */
+    private void resumePausedReads() {
+        long now = System.nanoTime();
+        while (!pausedReads.isEmpty() && pausedReads.peek().resumeAt() <= now) {
+            SelectionKey key = pausedReads.poll().key();
+            if (key.isValid()) {
+                int id = ConnectionTable.idOf(key);
+                connections.clearFlag(id, ConnectionTable.FLAG_READ_PAUSED);
+                if (connections.pendingWrite(id) == null) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                } // Otherwise reads resume once the parked response has been flushed
+            }
         }
     }
 
@@ -235,8 +445,16 @@ public class NIOServer {
             if (key != null && key.isValid()) {
                 key.cancel(); // Cancel the key
             }
-            writeBuffers.remove(clientChannel); // Remove any pending write data for this client
-            System.out.println("Client channel closed: " + clientAddress);
+            int id = key != null ? ConnectionTable.idOf(key) : -1;
+            if (id >= 0) {
+                if (httpCodec != null) {
+                    httpCodec.release(id); // Hands its pooled buffers back before the table drops them
+                }
+                connections.release(id); // Frees the slot and any pending write data for this client
+            }
+            if (VERBOSE) {
+                System.out.println("Client channel closed: " + clientAddress);
+            }
         } catch (IOException e) {
             System.err.println("Error closing client channel " + clientAddress + ": " + e.getMessage());
             e.printStackTrace(); // Print stack trace for debugging
@@ -246,11 +464,12 @@ public class NIOServer {
 
     /**
      * Stops the server gracefully by closing the selector and server channel.
+     * Synchronized because the shutdown hook and the exiting server loop both call it.
      */
-    public void stop() {
+    public synchronized void stop() {
         running = false; // Set running flag to false to stop the main loop
 
-        if (selector != null) {
+        if (selector != null && selector.isOpen()) { // stop() runs from both the shutdown hook and start()
             selector.wakeup(); // Important: Wake up the selector to break out of select()
             try {
                 // Close all registered channels
@@ -261,6 +480,9 @@ public class NIOServer {
                 }
                 selector.close();
                 System.out.println("Selector closed.");
+                if (TRACER != null) {
+                    System.out.print(TRACER.report()); // Once, when the selector actually closes
+                }
             } catch (IOException e) {
                 System.err.println("Error closing selector: " + e.getMessage());
                 e.printStackTrace();
@@ -280,7 +502,20 @@ public class NIOServer {
     }
 
     public static void main(String[] args) {
-        NIOServer server = new NIOServer();
+        int port = PORT;
+        List<InetSocketAddress> backends = null;
+        BackendPool.Strategy strategy = BackendPool.Strategy.ROUND_ROBIN;
+        boolean http = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--http" -> http = true;
+                case "--proxy" -> backends = BackendPool.parseAddresses(args[++i]);
+                case "--balance" -> strategy = "least-connections".equals(args[++i])
+                        ? BackendPool.Strategy.LEAST_CONNECTIONS : BackendPool.Strategy.ROUND_ROBIN;
+                default -> port = Integer.parseInt(args[i]);
+            }
+        }
+        NIOServer server = new NIOServer(port, backends == null ? null : new BackendPool(backends, strategy), http);
         server.start();
     }
 }
\ No newline at end of file
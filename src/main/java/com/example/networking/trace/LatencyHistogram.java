@@ -0,0 +1,104 @@
+package com.example.networking.trace;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts nanosecond durations in log-linear buckets: every power of
+ * two is split into 16 equal sub-buckets, so any recorded value is reported within
+ * about 6% of its true value, from 1 ns up to Long.MAX_VALUE, in a fixed 976 slots.
+ *
+ * Recording is one atomic increment and never allocates. Histograms are meant to be
+ * written by one thread (or a few) and merged into a fresh histogram when a report
+ * is needed; a merge taken while writers are active may miss their latest values.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(2); // [0] = sum of values, [1] = max value
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.getAndIncrement(bucketOf(value));
+        totals.getAndAdd(0, value);
+        long max = totals.get(1);
+        while (value > max && !totals.compareAndSet(1, max, value)) {
+            max = totals.get(1);
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.getAndAdd(i, count);
+            }
+        }
+        totals.getAndAdd(0, other.totals.get(0));
+        totals.accumulateAndGet(1, other.totals.get(1), Math::max);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long max() {
+        return totals.get(1);
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) totals.get(0) / count;
+    }
+
+    /**
+     * Value at the given percentile (0-100): the upper bound of the bucket that holds it.
+     */
+    public long percentile(double percentile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Values below 16 get a bucket each; above that, the bucket is picked by the position
+     * of the highest set bit and the next four bits below it.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lower = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
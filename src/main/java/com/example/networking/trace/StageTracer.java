@@ -0,0 +1,266 @@
+package com.example.networking.trace;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StageTracer breaks the latency of a request down into the stages of the server's
+ * request path. A sampled request carries a Trace that is stamped with System.nanoTime()
+ * at every stage boundary; when the request completes, each stage's duration goes into
+ * a histogram owned by the finishing thread. Histograms of all threads are merged only
+ * when a report is asked for, so the request path never shares a counter with other threads.
+ *
+ * Requests whose total time exceeds the slow threshold are logged with their full
+ * stage timeline. Only sampled requests are timed at all: every other request costs
+ * a decrement of a thread-local counter, which makes the sample rate the overhead knob.
+ *
+ * Virtual threads are short-lived and numerous, so they share one set of histograms
+ * instead of each registering its own.
+ */
+public class StageTracer {
+
+    /**
+     * Stages of the request path, in the order they usually occur.
+     */
+    public enum Stage {
+        WAIT("wait"),       // Selector wait until the connection is serviced, or blocked in readLine().
+                            // On a kept-alive connection this includes the client's pause between requests.
+        DECODE("decode"),   // Reading the bytes off the socket and turning them into a message
+        QUEUE("queue"),     // Waiting in an executor queue for a worker thread
+        HANDLER("handler"), // Producing the response
+        FLUSH("flush");     // Writing the response to the socket
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static StageTracer systemTracer;
+
+    /**
+     * Timeline of one sampled request. Created by begin(), stamped with mark() at each
+     * stage boundary and handed to finish(). A trace may move between threads together
+     * with its request (e.g. through an executor), but is only used by one thread at a time.
+     */
+    public static final class Trace {
+        private final long start;
+        private final Stage[] stages = new Stage[STAGES.length + 1];
+        private final long[] ends = new long[STAGES.length + 1];
+        private int marks;
+        private Object label; // Printed in the slow-request log, usually the client address
+
+        private Trace(long start) {
+            this.start = start;
+        }
+
+        /**
+         * Ends the given stage now. The stage lasted from the previous mark (or the start).
+         */
+        public void mark(Stage stage) {
+            mark(stage, System.nanoTime());
+        }
+
+        public void mark(Stage stage, long now) {
+            if (marks < ends.length) {
+                stages[marks] = stage;
+                ends[marks++] = now;
+            }
+        }
+
+        public void label(Object label) {
+            this.label = label;
+        }
+
+        private long end() {
+            return marks == 0 ? start : ends[marks - 1];
+        }
+    }
+
+    /**
+     * Histograms of one thread.
+     */
+    private static final class ThreadState {
+        final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+        final LatencyHistogram total = new LatencyHistogram();
+
+        ThreadState() {
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    /**
+     * Requests left until the thread samples the next one.
+     */
+    private static final class Countdown {
+        int untilSample;
+
+        Countdown(int sampleEvery) {
+            // Random phase so that threads serving the same traffic pattern don't all sample in step
+            untilSample = ThreadLocalRandom.current().nextInt(sampleEvery) + 1;
+        }
+    }
+
+    private final int sampleEvery;
+    private final long slowNanos;
+    private final Queue<ThreadState> threads = new ConcurrentLinkedQueue<>(); // Every registered thread's histograms
+    private final ThreadState virtualThreads = new ThreadState();
+    private final ThreadLocal<ThreadState> threadState; // Only used by platform threads
+    private final ThreadLocal<Countdown> countdown;
+
+    /**
+     * @param sampleEvery trace one in this many requests per thread, 1 traces every request
+     * @param slowMillis log the timeline of traced requests taking at least this long, 0 to disable
+     */
+    public StageTracer(int sampleEvery, long slowMillis) {
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+        threads.add(virtualThreads);
+        this.threadState = ThreadLocal.withInitial(() -> {
+            ThreadState state = new ThreadState();
+            threads.add(state);
+            return state;
+        });
+        this.countdown = ThreadLocal.withInitial(() -> new Countdown(this.sampleEvery));
+    }
+
+    /**
+     * Returns the process-wide tracer configured by -Dtrace.sampleEvery (default 0, tracing off),
+     * -Dtrace.slowMillis (default 100, 0 disables the slow-request log) and -Dtrace.reportSeconds
+     * (default 0; when set, a daemon thread prints the merged histograms at that interval).
+     * Returns null when tracing is off, so callers can skip it with a single null check.
+     * All servers in a JVM share the instance, so one report covers every request path.
+     */
+    public static synchronized StageTracer fromSystemProperties() {
+        int sampleEvery = Integer.getInteger("trace.sampleEvery", 0);
+        if (sampleEvery <= 0) {
+            return null;
+        }
+        if (systemTracer == null) {
+            systemTracer = new StageTracer(sampleEvery, Long.getLong("trace.slowMillis", 100));
+            long reportSeconds = Long.getLong("trace.reportSeconds", 0);
+            if (reportSeconds > 0) {
+                Thread.ofPlatform().daemon().name("trace-reporter").start(() -> {
+                    try {
+                        while (true) {
+                            TimeUnit.SECONDS.sleep(reportSeconds);
+                            System.out.print(systemTracer.report());
+                        }
+                    } catch (InterruptedException ignored) {
+                    }
+                });
+            }
+        }
+        return systemTracer;
+    }
+
+    /**
+     * Starts a trace at the current time if this request is sampled, otherwise returns null.
+     */
+    public Trace begin() {
+        return sampled() ? new Trace(System.nanoTime()) : null;
+    }
+
+    /**
+     * Starts a trace at an earlier time (e.g. when the selector began waiting) if this
+     * request is sampled, otherwise returns null.
+     */
+    public Trace begin(long startNanos) {
+        return sampled() ? new Trace(startNanos) : null;
+    }
+
+    /**
+     * Records the stage durations of a completed request and logs it if it was slow.
+     */
+    public void finish(Trace trace) {
+        Thread current = Thread.currentThread();
+        ThreadState state = current.isVirtual() ? virtualThreads : threadState.get();
+        long previous = trace.start;
+        for (int i = 0; i < trace.marks; i++) {
+            state.stages[trace.stages[i].ordinal()].record(trace.ends[i] - previous);
+            previous = trace.ends[i];
+        }
+        long total = trace.end() - trace.start;
+        state.total.record(total);
+
+        if (slowNanos > 0 && total >= slowNanos) {
+            StringBuilder line = new StringBuilder(128);
+            line.append(String.format("SLOW request %.3f ms", total / 1e6));
+            if (trace.label != null) {
+                line.append(" from ").append(trace.label);
+            }
+            line.append(" on ").append(current.getName().isEmpty() ? current.toString() : current.getName()).append(':');
+            previous = trace.start;
+            for (int i = 0; i < trace.marks; i++) {
+                line.append(String.format(" %s %.3f ms", trace.stages[i].label(), (trace.ends[i] - previous) / 1e6));
+                line.append(i + 1 < trace.marks ? " |" : "");
+                previous = trace.ends[i];
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Merges every thread's histogram of one stage.
+     */
+    public LatencyHistogram merged(Stage stage) {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (ThreadState state : threads) {
+            merged.add(state.stages[stage.ordinal()]);
+        }
+        return merged;
+    }
+
+    /**
+     * Merges every thread's histogram of total request time.
+     */
+    public LatencyHistogram mergedTotal() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (ThreadState state : threads) {
+            merged.add(state.total);
+        }
+        return merged;
+    }
+
+    /**
+     * Merged per-stage percentiles as a printable table, in microseconds.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Request stages (1 in %d sampled, us):%n", sampleEvery));
+        report.append(String.format("  %-8s %10s %10s %10s %10s %10s %10s%n", "stage", "count", "mean", "p50", "p99", "p99.9", "max"));
+        for (Stage stage : STAGES) {
+            appendRow(report, stage.label(), merged(stage));
+        }
+        appendRow(report, "total", mergedTotal());
+        return report.toString();
+    }
+
+    private static void appendRow(StringBuilder report, String name, LatencyHistogram histogram) {
+        if (histogram.count() == 0) {
+            return; // Stage doesn't occur on this server's request path
+        }
+        report.append(String.format("  %-8s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, histogram.count(),
+                histogram.mean() / 1e3, histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3,
+                histogram.percentile(99.9) / 1e3, histogram.max() / 1e3));
+    }
+
+    private boolean sampled() {
+        Countdown state = countdown.get();
+        if (--state.untilSample > 0) {
+            return false;
+        }
+        state.untilSample = sampleEvery;
+        return true;
+    }
+}
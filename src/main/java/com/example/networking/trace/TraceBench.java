@@ -0,0 +1,163 @@
+package com.example.networking.trace;
+
+import com.example.networking.bench.LocalServers;
+import com.example.networking.tcp.server.NIOServer;
+import com.example.networking.trace.StageTracer.Stage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TraceBench measures what stage tracing costs at different sample rates.
+ *
+ * Part 1 times the tracing calls of one request on its own (begin, four marks and
+ * finish when sampled, a countdown when not) in nanoseconds per request.
+ *
+ * Part 2 runs NIOServer in a child JVM once per sample rate and drives it with
+ * closed-loop clients, one request in flight per connection, reporting requests/s
+ * and round-trip percentiles next to the untraced server. The child's merged stage
+ * report is printed after each traced run.
+ *
+ * Usage: TraceBench [clients] [seconds] [sampleRates, e.g. 1000,100,1]
+ */
+public class TraceBench {
+    private static final int PORT = 12440;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] rates = (args.length > 2 ? args[2] : "1000,100,1").split(",");
+
+        System.out.printf("%-14s %12s%n", "sampling", "ns/request");
+        microBench("off", null);
+        for (String rate : rates) {
+            microBench("1 in " + rate, new StageTracer(Integer.parseInt(rate), 0));
+        }
+
+        System.out.println();
+        List<String> reports = new ArrayList<>();
+        System.out.printf("%-14s %12s %10s %10s %10s%n", "sampling", "requests/s", "p50 (us)", "p99 (us)", "max (us)");
+        serverBench("off", 0, clients, seconds, reports);
+        for (String rate : rates) {
+            serverBench("1 in " + rate, Integer.parseInt(rate), clients, seconds, reports);
+        }
+        for (String report : reports) {
+            System.out.println();
+            System.out.print(report);
+        }
+    }
+
+    private static void microBench(String label, StageTracer tracer) {
+        int iterations = 20_000_000;
+        long start = 0;
+        for (int pass = 0; pass < 2; pass++) { // First pass is warmup
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                StageTracer.Trace trace = tracer != null ? tracer.begin() : null;
+                if (trace != null) {
+                    trace.mark(Stage.WAIT);
+                    trace.mark(Stage.DECODE);
+                    trace.mark(Stage.HANDLER);
+                    trace.mark(Stage.FLUSH);
+                    tracer.finish(trace);
+                }
+            }
+        }
+        System.out.printf("%-14s %12.1f%n", label, (double) (System.nanoTime() - start) / iterations);
+    }
+
+    private static void serverBench(String label, int sampleEvery, int clients, int seconds, List<String> reports)
+            throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        ProcessBuilder builder = new ProcessBuilder(java, "-Dnio.quiet=true",
+                "-Dtrace.sampleEvery=" + sampleEvery, "-Dtrace.slowMillis=0",
+                "-cp", System.getProperty("java.class.path"), NIOServer.class.getName(), String.valueOf(PORT));
+        builder.redirectErrorStream(true);
+        Process server = builder.start();
+        StringBuilder output = new StringBuilder();
+        Thread drain = Thread.ofPlatform().start(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(server.getInputStream()))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    synchronized (output) {
+                        output.append(line).append('\n');
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        try {
+            LocalServers.awaitListening(PORT, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+            drive(1, 2, null); // Warmup
+            long[] latencies = drive(clients, seconds, label);
+            System.out.printf("%-14s %12.0f %10.1f %10.1f %10.1f%n", label, latencies.length / (double) seconds,
+                    latencies[latencies.length / 2] / 1e3, latencies[(int) (latencies.length * 0.99)] / 1e3,
+                    latencies[latencies.length - 1] / 1e3);
+        } finally {
+            // SIGTERM, so the shutdown hook prints the trace report. Process.destroy() would also
+            // close our end of the child's output before the report arrives.
+            server.toHandle().destroy();
+            server.waitFor(30, TimeUnit.SECONDS);
+            drain.join();
+        }
+        if (sampleEvery > 0) {
+            String all = output.toString();
+            int at = all.indexOf("Request stages");
+            if (at >= 0) {
+                String report = all.substring(at);
+                reports.add(label + ": " + report.substring(0, report.indexOf("Server stopped.") > 0
+                        ? report.indexOf("Server stopped.") : report.length()));
+            }
+        }
+    }
+
+    /**
+     * Runs closed-loop clients for the given time and returns every round trip in nanoseconds, sorted.
+     */
+    private static long[] drive(int clients, int seconds, String label) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long[][] perClient = new long[clients][];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            final int n = c;
+            threads[c] = Thread.ofPlatform().start(() -> {
+                long[] samples = new long[1 << 16];
+                int count = 0;
+                try (Socket socket = new Socket("127.0.0.1", PORT)) {
+                    socket.setTcpNoDelay(true);
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    while (System.nanoTime() < end) {
+                        long begin = System.nanoTime();
+                        out.println("hello " + n);
+                        if (in.readLine() == null) {
+                            break;
+                        }
+                        if (count == samples.length) {
+                            samples = Arrays.copyOf(samples, count * 2);
+                        }
+                        samples[count++] = System.nanoTime() - begin;
+                    }
+                } catch (IOException e) {
+                    System.err.println("Client " + n + " failed: " + e.getMessage());
+                }
+                perClient[n] = Arrays.copyOf(samples, count);
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] all = Arrays.stream(perClient).flatMapToLong(Arrays::stream).sorted().toArray();
+        if (all.length == 0) {
+            throw new IllegalStateException("No requests completed" + (label != null ? " for " + label : ""));
+        }
+        return all;
+    }
+}
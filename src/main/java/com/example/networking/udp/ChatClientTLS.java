@@ -33,7 +33,8 @@ public class ChatClientTLS {
         }
     }
 
-    private static SSLContext createSSLContext() throws Exception {
+    // Trusts any certificate: the bundled keystore is self-signed. Shared with ChatClusterBench and the startup training run.
+    public static SSLContext createSSLContext() throws Exception {
         SSLContext sslContext = SSLContext.getInstance("TLS");
         sslContext.init(null, new TrustManager[] {
             new X509TrustManager() {
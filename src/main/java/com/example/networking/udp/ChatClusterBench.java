@@ -0,0 +1,292 @@
+package com.example.networking.udp;
+
+import com.example.networking.bench.LocalServers;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ChatClusterBench starts 1..N ChatServerTLS processes on loopback, links them
+ * with ChatRelay and measures:
+ *   - cross-node delivery latency: one publisher on node 0, one subscriber per node
+ *   - aggregate throughput: one subscriber per node and one, then several concurrent
+ *     publishers per node, all in the same room
+ * Every node runs in its own JVM, started from this process's classpath. A round whose
+ * deliveries don't all arrive within the timeout reports delivered/expected, and the
+ * run exits with status 1.
+ *
+ * Usage: ChatClusterBench [maxNodes] [messagesPerPublisher] [publishersPerNode]
+ */
+public class ChatClusterBench {
+    private static final String HOST = "localhost";
+    private static final int BASE_CLIENT_PORT = 9443;
+    private static final int BASE_RELAY_PORT = 9543;
+    private static final String ROOM = "bench";
+    private static final long LATENCY_SEND_INTERVAL_NANOS = 1_000_000; // Pace latency samples to avoid measuring queueing
+    private static final long DELIVERY_TIMEOUT_SECONDS = 60;
+
+    private static boolean complete = true; // Cleared when a round misses deliveries
+
+    public static void main(String[] args) throws Exception {
+        int maxNodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int publishersPerNode = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        System.out.printf("%-6s %14s %14s %14s %18s %18s%n", "nodes", "p50 (us)", "p99 (us)", "max (us)",
+                "deliveries/s", publishersPerNode + " pubs/node");
+        for (int nodes = 1; nodes <= maxNodes; nodes++) {
+            List<Process> processes = startCluster(nodes);
+            try {
+                runRound(nodes, messages, publishersPerNode);
+            } finally {
+                for (Process process : processes) {
+                    process.destroy();
+                }
+                for (Process process : processes) {
+                    process.waitFor(10, TimeUnit.SECONDS);
+                }
+            }
+        }
+        if (!complete) {
+            System.out.println("Some deliveries did not arrive, see above");
+            System.exit(1);
+        }
+    }
+
+    private static void runRound(int nodes, int messages, int publishersPerNode) throws Exception {
+        SSLSocketFactory factory = ChatClientTLS.createSSLContext().getSocketFactory();
+        List<Subscriber> subscribers = new ArrayList<>();
+        List<PrintWriter> publishers = new ArrayList<>();    // The first publisher of every node
+        List<PrintWriter> allPublishers = new ArrayList<>(); // publishersPerNode per node
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < nodes; i++) {
+                SSLSocket socket = (SSLSocket) factory.createSocket(HOST, BASE_CLIENT_PORT + i);
+                sockets.add(socket);
+                Subscriber subscriber = new Subscriber(i, socket);
+                subscribers.add(subscriber);
+                subscriber.out.println("/subscribe " + ROOM);
+
+                for (int p = 0; p < publishersPerNode; p++) {
+                    SSLSocket publisherSocket = (SSLSocket) factory.createSocket(HOST, BASE_CLIENT_PORT + i);
+                    sockets.add(publisherSocket);
+                    PrintWriter publisher = new PrintWriter(publisherSocket.getOutputStream(), true);
+                    if (p == 0) {
+                        publishers.add(publisher);
+                    }
+                    allPublishers.add(publisher);
+                    Thread.startVirtualThread(() -> drain(publisherSocket)); // Publishers sit in the lobby, ignore its traffic
+                }
+            }
+            awaitInterestPropagation(publishers.get(0), subscribers);
+
+            // Latency: a single paced publisher on node 0. The first pass only warms up the fresh JVMs.
+            long[] latencies = null;
+            for (int pass = 0; pass < 2; pass++) {
+                for (Subscriber subscriber : subscribers) {
+                    subscriber.reset(messages);
+                }
+                PrintWriter publisher = publishers.get(0);
+                for (int m = 0; m < messages; m++) {
+                    publisher.println("/publish " + ROOM + " L " + System.nanoTime());
+                    LockSupport.parkNanos(LATENCY_SEND_INTERVAL_NANOS);
+                }
+                awaitDeliveries(subscribers, nodes + " nodes, latency");
+                latencies = collectLatencies(subscribers, nodes);
+            }
+
+            // Throughput: every node publishes as fast as it can, first over one connection, then
+            // over several at once, so the relays forward concurrent publishers into the same links
+            double single = throughput(subscribers, publishers, messages, nodes + " nodes, 1 pub/node");
+            double multiple = throughput(subscribers, allPublishers, messages,
+                    nodes + " nodes, " + publishersPerNode + " pubs/node");
+
+            System.out.printf("%-6d %14.1f %14.1f %14.1f %18.0f %18.0f%n", nodes,
+                    percentile(latencies, 0.50) / 1e3, percentile(latencies, 0.99) / 1e3,
+                    percentile(latencies, 1.0) / 1e3, single, multiple);
+        } finally {
+            for (Socket socket : sockets) {
+                try { socket.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Has every publisher send messages concurrently and returns the deliveries per second
+     * across all subscribers.
+     */
+    private static double throughput(List<Subscriber> subscribers, List<PrintWriter> publishers, int messages,
+                                     String phase) throws InterruptedException {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.reset((long) messages * publishers.size());
+        }
+        long start = System.nanoTime();
+        List<Thread> senders = new ArrayList<>();
+        for (PrintWriter writer : publishers) {
+            senders.add(Thread.startVirtualThread(() -> {
+                for (int m = 0; m < messages; m++) {
+                    writer.println("/publish " + ROOM + " T " + m);
+                }
+            }));
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        long delivered = awaitDeliveries(subscribers, phase);
+        return delivered / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Waits until every subscriber has its expected deliveries, or DELIVERY_TIMEOUT_SECONDS
+     * have passed. Reports and records a shortfall. Returns the deliveries of all subscribers.
+     */
+    private static long awaitDeliveries(List<Subscriber> subscribers, String phase) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DELIVERY_TIMEOUT_SECONDS);
+        long delivered = 0;
+        long expected = 0;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            delivered += subscriber.received.get();
+            expected += subscriber.expected;
+        }
+        if (delivered < expected) {
+            complete = false;
+            System.out.printf("%s: only %d of %d deliveries arrived within %d s%n",
+                    phase, delivered, expected, DELIVERY_TIMEOUT_SECONDS);
+        }
+        return delivered;
+    }
+
+    /**
+     * Probes until a message from node 0 reaches every node, i.e. every relay link has learned the room.
+     */
+    private static void awaitInterestPropagation(PrintWriter publisher, List<Subscriber> subscribers) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            boolean all = true;
+            for (Subscriber subscriber : subscribers) {
+                all &= subscriber.probed;
+            }
+            if (all) {
+                return;
+            }
+            publisher.println("/publish " + ROOM + " P");
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("Cluster did not propagate room interest in time");
+    }
+
+    private static long[] collectLatencies(List<Subscriber> subscribers, int nodes) {
+        List<long[]> parts = new ArrayList<>();
+        for (Subscriber subscriber : subscribers) {
+            // With more than one node, only count deliveries that crossed a relay link
+            if (nodes == 1 || subscriber.node != 0) {
+                int received = (int) Math.min(subscriber.received.get(), subscriber.latencies.length);
+                parts.add(Arrays.copyOf(subscriber.latencies, received));
+            }
+        }
+        long[] all = parts.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        return all.length == 0 ? new long[] { 0 } : all;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)];
+    }
+
+    private static void drain(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            while (in.readLine() != null) {
+                // discard
+            }
+        } catch (IOException ignored) {}
+    }
+
+    private static List<Process> startCluster(int nodes) throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        String classpath = System.getProperty("java.class.path");
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            StringBuilder peers = new StringBuilder();
+            for (int j = 0; j < nodes; j++) {
+                if (j != i) {
+                    peers.append(peers.length() == 0 ? "" : ",").append(HOST).append(':').append(BASE_RELAY_PORT + j);
+                }
+            }
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", classpath,
+                    ChatServerTLS.class.getName(),
+                    String.valueOf(BASE_CLIENT_PORT + i), String.valueOf(BASE_RELAY_PORT + i), peers.toString());
+            builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            processes.add(builder.start());
+        }
+        for (int i = 0; i < nodes; i++) {
+            LocalServers.awaitListening(BASE_CLIENT_PORT + i, System.nanoTime() + TimeUnit.SECONDS.toNanos(30));
+        }
+        return processes;
+    }
+
+    /**
+     * A subscriber connection that records latency of "L" messages and counts "L"/"T" deliveries.
+     */
+    private static class Subscriber {
+        final int node;
+        final PrintWriter out;
+        final AtomicLong received = new AtomicLong();
+        volatile long[] latencies = new long[0];
+        volatile long expected;
+        volatile CountDownLatch done = new CountDownLatch(1);
+        volatile boolean probed;
+
+        Subscriber(int node, Socket socket) throws IOException {
+            this.node = node;
+            this.out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            Thread.startVirtualThread(() -> read(in));
+        }
+
+        void reset(long expected) {
+            this.latencies = new long[(int) Math.min(expected, Integer.MAX_VALUE)];
+            this.received.set(0);
+            this.expected = expected;
+            this.done = new CountDownLatch(1);
+        }
+
+        private void read(BufferedReader in) {
+            String prefix = "[" + ROOM + "] ";
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.startsWith(prefix)) {
+                        continue;
+                    }
+                    char kind = line.charAt(prefix.length());
+                    if (kind == 'P') {
+                        probed = true;
+                        continue;
+                    }
+                    long n = received.getAndIncrement();
+                    if (kind == 'L' && n < latencies.length) {
+                        long sent = Long.parseLong(line.substring(prefix.length() + 2));
+                        latencies[(int) n] = System.nanoTime() - sent;
+                    }
+                    if (n + 1 == expected) {
+                        done.countDown();
+                    }
+                }
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.example.networking.udp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChatRelay links several ChatServerTLS instances into a cluster over plain TCP.
+ * Peers are a static list of relay addresses. Every node dials every peer, so each
+ * pair of nodes has one connection per direction. On a link the dialing node sends
+ * chat messages, and the accepting node answers with the rooms it has local
+ * subscribers for. A message is therefore sent once per interested peer, whatever
+ * its subscriber count there, and the receiving node only fans it out locally.
+ *
+ * Wire frames (DataOutputStream encoding; ids with writeUTF, rooms and lines as an int
+ * length followed by that many UTF-8 bytes, since client input can exceed writeUTF's 64 KB):
+ *   'H' nodeId                     hello, first frame from the dialing node
+ *   'M' originId seq room line     chat message
+ *   'S' room / 'U' room            accepting node does / no longer has subscribers for room
+ * Advertisements are written by a per-link writer thread, so a stuck peer never blocks
+ * the clients whose subscriptions changed.
+ */
+public class ChatRelay implements RoomRegistry.RoomListener {
+    private static final byte HELLO = 'H';
+    private static final byte MESSAGE = 'M';
+    private static final byte SUBSCRIBED = 'S';
+    private static final byte UNSUBSCRIBED = 'U';
+
+    private static final int LINK_QUEUE_CAPACITY = 65536; // Messages buffered per peer before dropping
+    private static final int MAX_BATCH = 256; // Messages written per flush on a peer link
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final int MAX_STRING_BYTES = 1 << 20; // Longer rooms or lines are not relayed
+
+    private final String nodeId; // Unique per process start, so restarted nodes don't look like duplicates
+    private final int relayPort;
+    private final RoomRegistry rooms;
+    private final List<PeerLink> peerLinks = new ArrayList<>();
+    private final Set<InboundLink> inboundLinks = ConcurrentHashMap.newKeySet();
+
+    // Highest sequence number delivered per origin node with an open link, used to drop duplicates
+    private final ConcurrentHashMap<String, AtomicLong> lastSeqByOrigin = new ConcurrentHashMap<>();
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private volatile boolean running = true;
+    private ServerSocket relaySocket;
+
+    public ChatRelay(int relayPort, List<InetSocketAddress> peers, RoomRegistry rooms) {
+        this.nodeId = "node-" + relayPort + "@" + System.currentTimeMillis();
+        this.relayPort = relayPort;
+        this.rooms = rooms;
+        for (InetSocketAddress peer : peers) {
+            peerLinks.add(new PeerLink(peer));
+        }
+    }
+
+    /**
+     * Parses a comma-separated peer list such as "localhost:9001,localhost:9002".
+     */
+    public static List<InetSocketAddress> parsePeers(String spec) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            peers.add(new InetSocketAddress(entry.substring(0, colon), Integer.parseInt(entry.substring(colon + 1))));
+        }
+        return peers;
+    }
+
+    /**
+     * Starts accepting peer connections and dialing the configured peers.
+     */
+    public void start() throws IOException {
+        relaySocket = new ServerSocket(relayPort);
+        rooms.setListener(this);
+        System.out.println("Chat relay " + nodeId + " listening on port " + relayPort + " with " + peerLinks.size() + " peers");
+
+        Thread.ofPlatform().daemon().name("relay-acceptor").start(this::acceptLoop);
+        for (PeerLink link : peerLinks) {
+            Thread.ofPlatform().daemon().name("relay-link-" + link.address).start(link::run);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (relaySocket != null) {
+                relaySocket.close();
+            }
+        } catch (IOException ignored) {}
+        for (PeerLink link : peerLinks) {
+            link.close();
+        }
+        for (InboundLink link : inboundLinks) {
+            link.close();
+        }
+    }
+
+    /**
+     * Forwards a locally published message to every peer that has subscribers in the room.
+     */
+    public void forward(String room, String line) {
+        Frame frame = null;
+        for (PeerLink link : peerLinks) {
+            if (link.interestedRooms.contains(room)) {
+                if (frame == null) {
+                    // Encoded once and shared by all links
+                    byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+                    byte[] lineBytes = line.getBytes(StandardCharsets.UTF_8);
+                    if (roomBytes.length > MAX_STRING_BYTES || lineBytes.length > MAX_STRING_BYTES) {
+                        droppedMessages.incrementAndGet(); // Peers would reject it, and drop the link with it
+                        return;
+                    }
+                    frame = new Frame(roomBytes, lineBytes);
+                }
+                if (!link.queue.offer(frame)) {
+                    droppedMessages.incrementAndGet(); // Peer is too slow, shed load instead of blocking publishers
+                }
+            }
+        }
+    }
+
+    public long droppedMessages() {
+        return droppedMessages.get();
+    }
+
+    @Override
+    public void roomChanged(String room) {
+        for (InboundLink link : inboundLinks) {
+            link.advertise(room);
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = relaySocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread.startVirtualThread(() -> handleInbound(socket));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Relay accept error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handleInbound(Socket socket) {
+        InboundLink link = null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readByte() != HELLO) {
+                throw new IOException("Expected hello frame");
+            }
+            String peerId = in.readUTF();
+            link = new InboundLink(peerId, socket);
+            inboundLinks.add(link);
+            // Tell the new peer everything we are currently interested in
+            for (String room : rooms.rooms()) {
+                link.advertise(room);
+            }
+
+            while (running) {
+                if (in.readByte() != MESSAGE) {
+                    throw new IOException("Unexpected frame from " + peerId);
+                }
+                String origin = in.readUTF();
+                long seq = in.readLong();
+                String room = readString(in);
+                String line = readString(in);
+                if (firstDelivery(origin, seq)) {
+                    rooms.publish(room, line); // Local fan-out only, every node is linked to every other
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.out.println("Relay inbound link closed: " + e.getMessage());
+            }
+        } finally {
+            if (link != null) {
+                inboundLinks.remove(link);
+                link.close();
+                // The origin's sequence only grows, also across reconnects, and nothing is
+                // resent on a new link, so its high-water mark can go with the link. Node ids
+                // include the start time, so keeping them would grow the map on every restart.
+                lastSeqByOrigin.remove(link.peerId);
+            } else {
+                try { socket.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Returns true the first time a message id is seen. Each origin sends over a
+     * single ordered link and numbers messages as it writes them, so tracking the
+     * highest sequence per origin is enough.
+     */
+    private boolean firstDelivery(String origin, long seq) {
+        AtomicLong last = lastSeqByOrigin.computeIfAbsent(origin, o -> new AtomicLong());
+        long seen;
+        do {
+            seen = last.get();
+            if (seq <= seen) {
+                return false;
+            }
+        } while (!last.compareAndSet(seen, seq));
+        return true;
+    }
+
+    private record Frame(byte[] room, byte[] line) {}
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Bad string length " + length); // Framing is lost, the link has to go
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Outgoing link to one peer: sends hello and chat messages, reads the peer's room interest.
+     */
+    private class PeerLink {
+        final InetSocketAddress address;
+        final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(LINK_QUEUE_CAPACITY);
+        final Set<String> interestedRooms = ConcurrentHashMap.newKeySet();
+        private volatile Socket socket;
+        // Assigned by the writer as frames go out rather than when publishers queue them:
+        // concurrent publishers can enqueue out of numbering order, and the receiver
+        // would then take the lower number for a duplicate. Never reset, also on reconnect.
+        private long nextSeq;
+
+        PeerLink(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void run() {
+            List<Frame> batch = new ArrayList<>(MAX_BATCH);
+            while (running) {
+                try (Socket s = new Socket()) {
+                    s.connect(address);
+                    s.setTcpNoDelay(true); // We batch ourselves, Nagle would only add latency
+                    socket = s;
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+                    out.writeByte(HELLO);
+                    out.writeUTF(nodeId);
+                    out.flush();
+                    System.out.println("Relay connected to peer " + address);
+
+                    Thread reader = Thread.startVirtualThread(() -> readInterest(s));
+                    try {
+                        while (running) {
+                            // Block for the first message, then take whatever else is already queued
+                            // so that small messages share a single write and flush.
+                            Frame first = queue.poll(1, TimeUnit.SECONDS);
+                            if (first == null) {
+                                if (s.isClosed()) {
+                                    throw new IOException("link closed by interest reader"); // Peer gone, reconnect
+                                }
+                                continue;
+                            }
+                            batch.add(first);
+                            queue.drainTo(batch, MAX_BATCH - 1);
+                            for (Frame frame : batch) {
+                                out.writeByte(MESSAGE);
+                                out.writeUTF(nodeId);
+                                out.writeLong(++nextSeq);
+                                writeBytes(out, frame.room());
+                                writeBytes(out, frame.line());
+                            }
+                            out.flush();
+                            batch.clear();
+                        }
+                    } finally {
+                        reader.interrupt();
+                    }
+                } catch (IOException e) {
+                    if (running) {
+                        System.out.println("Relay link to " + address + " unavailable: " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    // Interest is re-advertised on reconnect; drop what we can no longer deliver
+                    interestedRooms.clear();
+                    queue.clear();
+                    batch.clear();
+                }
+                sleepBeforeReconnect();
+            }
+        }
+
+        private void readInterest(Socket s) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                while (true) {
+                    byte type = in.readByte();
+                    String room = readString(in);
+                    if (type == SUBSCRIBED) {
+                        interestedRooms.add(room);
+                    } else if (type == UNSUBSCRIBED) {
+                        interestedRooms.remove(room);
+                    }
+                }
+            } catch (IOException e) {
+                // Peer went away, closing the socket also fails the writer and triggers a reconnect
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        private void sleepBeforeReconnect() {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+
+        void close() {
+            Socket s = socket;
+            if (s != null) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Incoming link from one peer: receives its chat messages, advertises our room interest.
+     * Rooms to advertise are queued for the link's writer thread, at most once each: the
+     * writer reads the room's state when it gets to it, so only the latest state is sent.
+     */
+    private class InboundLink {
+        final String peerId;
+        final Socket socket;
+        final DataOutputStream out;
+        final Set<String> pendingRooms = ConcurrentHashMap.newKeySet();
+        final BlockingQueue<String> pendingOrder = new LinkedBlockingQueue<>();
+        final Thread writer;
+
+        InboundLink(String peerId, Socket socket) throws IOException {
+            this.peerId = peerId;
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.writer = Thread.ofVirtual().name("relay-advertiser-" + peerId).start(this::writeLoop);
+        }
+
+        /**
+         * Queues the room's current state to be sent. Never blocks.
+         */
+        void advertise(String room) {
+            if (pendingRooms.add(room)) {
+                pendingOrder.add(room);
+            }
+        }
+
+        private void writeLoop() {
+            try {
+                while (true) {
+                    String room = pendingOrder.take();
+                    // Removed before reading the state, so a change from here on queues it again
+                    pendingRooms.remove(room);
+                    byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+                    if (roomBytes.length <= MAX_STRING_BYTES) { // Nothing is relayed for longer names anyway
+                        out.writeByte(rooms.subscribers(room).length > 0 ? SUBSCRIBED : UNSUBSCRIBED);
+                        writeBytes(out, roomBytes);
+                    }
+                    if (pendingOrder.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to advertise room to " + peerId + ": " + e.getMessage());
+                close();
+            } catch (InterruptedException e) {
+                // Link closed
+            }
+        }
+
+        void close() {
+            writer.interrupt();
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+}
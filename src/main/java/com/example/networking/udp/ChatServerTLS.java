@@ -6,15 +6,39 @@ import java.security.KeyStore;
 import java.util.*;
 import java.util.concurrent.*;
 
+/**
+ * TLS chat server with named rooms. Every client starts in the default room and
+ * can manage its subscriptions with line commands:
+ *   /subscribe room          join a room (also makes it the current room)
+ *   /unsubscribe room        leave a room (leaving the current room makes another
+ *                            joined room current, lobby first)
+ *   /publish room message    send a message to a room without switching to it
+ * Any other line is published to the client's current room, and refused while the
+ * client has left every room. Fan-out goes through
+ * a RoomRegistry, so a message only reaches the members of its room.
+ *
+ * Usage: ChatServerTLS [port] [relayPort peerHost:peerPort,...]
+ * With a relay port and peer list the server joins a cluster through ChatRelay,
+ * and messages reach subscribers of the same room on every node.
+ */
 public class ChatServerTLS {
     private static final int PORT = 8443;
-    private static Set<PrintWriter> clients = ConcurrentHashMap.newKeySet();
+    private static final String DEFAULT_ROOM = "lobby";
+    private static final RoomRegistry rooms = new RoomRegistry();
     private static final boolean USE_VIRTUAL_THREADS = true;
+    private static ChatRelay relay; // Null when running as a single node
 
     public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT;
+        if (args.length > 1) {
+            List<InetSocketAddress> peers = args.length > 2 ? ChatRelay.parsePeers(args[2]) : List.of();
+            relay = new ChatRelay(Integer.parseInt(args[1]), peers, rooms);
+            relay.start();
+        }
+
         SSLServerSocketFactory factory = createSSLContext().getServerSocketFactory();
-        try (SSLServerSocket serverSocket = (SSLServerSocket) factory.createServerSocket(PORT)) {
-            System.out.println("TLS Chat server running on port " + PORT);
+        try (SSLServerSocket serverSocket = (SSLServerSocket) factory.createServerSocket(port)) {
+            System.out.println("TLS Chat server running on port " + port);
 
             ExecutorService pool = Executors.newFixedThreadPool(20);
 
@@ -33,25 +57,75 @@ public class ChatServerTLS {
     }
 
     private static void handleClient(Socket socket) {
+        Set<String> subscriptions = new HashSet<>(); // Rooms this client joined, for cleanup on disconnect
+        PrintWriter out = null;
         try (
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true)
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
         ) {
-            clients.add(out);
+            out = new PrintWriter(socket.getOutputStream(), true);
+            String currentRoom = DEFAULT_ROOM;
+            rooms.subscribe(currentRoom, out);
+            subscriptions.add(currentRoom);
+
             String line;
             while ((line = in.readLine()) != null) {
-                for (PrintWriter writer : clients) {
-                    writer.println(line);
+                if (line.startsWith("/subscribe ")) {
+                    String room = line.substring("/subscribe ".length()).trim();
+                    if (!room.isEmpty()) {
+                        rooms.subscribe(room, out);
+                        subscriptions.add(room);
+                        currentRoom = room;
+                        out.println("Subscribed to " + room);
+                    }
+                } else if (line.startsWith("/unsubscribe ")) {
+                    String room = line.substring("/unsubscribe ".length()).trim();
+                    if (rooms.unsubscribe(room, out)) {
+                        subscriptions.remove(room);
+                        out.println("Unsubscribed from " + room);
+                        if (room.equals(currentRoom)) {
+                            // Plain lines must not keep going to a room the client no longer sees
+                            currentRoom = subscriptions.contains(DEFAULT_ROOM) ? DEFAULT_ROOM
+                                    : subscriptions.stream().findFirst().orElse(null);
+                            out.println(currentRoom != null ? "Current room is now " + currentRoom
+                                    : "Not in any room, /subscribe to one to chat");
+                        }
+                    }
+                } else if (line.startsWith("/publish ")) {
+                    // Format: /publish <room> <message>
+                    String rest = line.substring("/publish ".length()).trim();
+                    int space = rest.indexOf(' ');
+                    if (space > 0) {
+                        String room = rest.substring(0, space);
+                        broadcast(room, "[" + room + "] " + rest.substring(space + 1));
+                    }
+                } else if (currentRoom == null) {
+                    out.println("Not in any room, /subscribe to one to chat");
+                } else {
+                    broadcast(currentRoom, "[" + currentRoom + "] " + line);
                 }
             }
         } catch (IOException e) {
             System.out.println("Client error: " + e.getMessage());
         } finally {
-            clients.removeIf(pw -> pw.checkError());
+            if (out != null) {
+                for (String room : subscriptions) {
+                    rooms.unsubscribe(room, out);
+                }
+            }
             try { socket.close(); } catch (IOException ignored) {}
         }
     }
 
+    /**
+     * Delivers a line to the room's local subscribers and, in a cluster, to peers that have subscribers in it.
+     */
+    private static void broadcast(String room, String line) {
+        rooms.publish(room, line);
+        if (relay != null) {
+            relay.forward(room, line);
+        }
+    }
+
     private static SSLContext createSSLContext() throws Exception {
         KeyStore ks = KeyStore.getInstance("JKS");
         InputStream keyStoreInputStream = ChatServerTLS.class.getClassLoader().getResourceAsStream("keystore.jks");
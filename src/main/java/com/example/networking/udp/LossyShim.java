@@ -0,0 +1,111 @@
+package com.example.networking.udp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LossyShim is a UDP relay for testing under packet loss on loopback. Clients send to
+ * the shim's port instead of the server's; it forwards their datagrams to the server and
+ * the server's replies back to the client, dropping each one independently with the
+ * configured probability in both directions. It relays for one client at a time (the one
+ * that sent last), which is all a benchmark run needs.
+ *
+ * Usage: LossyShim listenPort serverHost:serverPort lossRate [seed]
+ *   e.g. LossyShim 5001 127.0.0.1:5000 0.05, then point UDPBroadcastClient at 5001
+ */
+public class LossyShim implements AutoCloseable {
+    private final DatagramSocket front;  // Faces the client
+    private final DatagramSocket back;   // Faces the server
+    private final SocketAddress server;
+    private final SplittableRandom upstreamRandom;
+    private final SplittableRandom downstreamRandom;
+    private volatile double lossRate;
+    private volatile SocketAddress client;
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public LossyShim(int listenPort, SocketAddress server, double lossRate, long seed) throws IOException {
+        this.front = new DatagramSocket(listenPort);
+        this.back = new DatagramSocket();
+        this.server = server;
+        this.lossRate = lossRate;
+        SplittableRandom random = new SplittableRandom(seed); // Seeded so runs drop the same pattern
+        this.upstreamRandom = random.split();
+        this.downstreamRandom = random.split();
+    }
+
+    public void start() {
+        Thread.ofPlatform().daemon().name("shim-upstream").start(() -> relay(front, back, upstreamRandom, true));
+        Thread.ofPlatform().daemon().name("shim-downstream").start(() -> relay(back, front, downstreamRandom, false));
+    }
+
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public long forwarded() {
+        return forwarded.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void close() {
+        front.close();
+        back.close();
+    }
+
+    private void relay(DatagramSocket from, DatagramSocket to, SplittableRandom random, boolean upstream) {
+        byte[] buffer = new byte[64 * 1024];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!from.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                from.receive(packet);
+                SocketAddress destination;
+                if (upstream) {
+                    client = packet.getSocketAddress();
+                    destination = server;
+                } else {
+                    destination = client;
+                }
+                if (destination == null || random.nextDouble() < lossRate) {
+                    dropped.increment();
+                    continue;
+                }
+                to.send(new DatagramPacket(buffer, packet.getLength(), destination));
+                forwarded.increment();
+            } catch (IOException e) {
+                if (!from.isClosed()) {
+                    System.err.println("Shim relay error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: LossyShim listenPort serverHost:serverPort lossRate [seed]");
+            System.exit(1);
+        }
+        int listenPort = Integer.parseInt(args[0]);
+        String[] target = args[1].split(":");
+        double lossRate = Double.parseDouble(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        LossyShim shim = new LossyShim(listenPort, new InetSocketAddress(target[0], Integer.parseInt(target[1])), lossRate, seed);
+        shim.start();
+        System.out.println("Relaying port " + listenPort + " to " + args[1] + ", dropping " + (lossRate * 100) + "% each way");
+        while (true) {
+            Thread.sleep(10_000);
+            System.out.println("forwarded " + shim.forwarded() + ", dropped " + shim.dropped());
+        }
+    }
+}
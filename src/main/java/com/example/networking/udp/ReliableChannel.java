@@ -0,0 +1,740 @@
+package com.example.networking.udp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ReliableChannel adds reliable, ordered delivery to a DatagramSocket, per peer address.
+ * Every message travels in one datagram carrying a sequence number. The sender keeps up to
+ * WINDOW unacknowledged messages in flight, so throughput is no longer one message per
+ * round trip. The receiver acknowledges every datagram with the next sequence number it
+ * expects plus a bitmap of the out-of-order ones it already holds (selective ack), and
+ * buffers those until the gap is filled, so messages are delivered in send order.
+ * Acks also advertise how many more messages the receiver will take: delivered messages
+ * the application hasn't received yet use up that window, so a slow reader throttles the
+ * sender instead of queueing without bound. Reading frees the window and sends an update;
+ * a sender stalled on a closed window probes after a timeout in case the update was lost.
+ *
+ * Lost datagrams are resent when their retransmission timeout expires, computed from a
+ * smoothed RTT estimate as in TCP (RFC 6298, with Karn's rule: resent messages give no
+ * RTT samples) and doubled on every timeout. A hole that three later messages have been
+ * selectively acked past is resent at once (fast retransmit) instead of waiting for the timer.
+ *
+ * Wire format (big endian):
+ *   DATA  1 | session(4) | seq(4) | payload
+ *   ACK   2 | session(4) | next expected seq(4) | SACK bitmap(8), bit i = seq next+1+i received
+ *           | receive window(2), messages accepted from next on
+ *   PROBE 3 | session(4), asks for an ACK
+ * The session is picked at random per peer. A receiver that sees a new session from a
+ * peer knows the peer restarted: it starts that peer's numbering over in both directions,
+ * dropping whatever was still unacknowledged to the old incarnation.
+ *
+ * A background thread reads the socket and a second one drives retransmits. send() blocks
+ * while the window to that peer is full; offer() never blocks, it queues the message in a
+ * bounded per-peer backlog that is sent as the window opens, and refuses it when that is full.
+ * A long backlog to a peer also shrinks the receive window offered to it, so a peer that
+ * sends requests faster than it takes the replies is slowed down instead of losing them.
+ * A peer that leaves a message unacknowledged through MAX_RETRANSMITS timeouts, or ignores
+ * as many window probes, is given up on: what was queued for it is dropped and its blocked
+ * senders fail. Peers with no traffic either way for -Dudp.peerIdleSeconds are forgotten,
+ * and the next message to one of them starts a new session.
+ *
+ * -Dudp.window (max 64, the bitmap width), -Dudp.minRtoMillis (default 10),
+ * -Dudp.maxRetransmits (default 10), -Dudp.sendQueue (offered messages queued per peer,
+ * default 1024) and -Dudp.peerIdleSeconds (default 60) tune the layer.
+ */
+public class ReliableChannel implements AutoCloseable {
+    public static final int MAX_PAYLOAD = 1400; // Keeps datagrams below a typical 1500 byte MTU
+
+    private static final byte DATA = 1;
+    private static final byte ACK = 2;
+    private static final byte PROBE = 3;
+    private static final int DATA_HEADER = 1 + 4 + 4;
+    private static final int ACK_LENGTH = 1 + 4 + 4 + 8 + 2;
+    private static final int PROBE_LENGTH = 1 + 4;
+
+    private static final int WINDOW = Math.min(64, Math.max(1, Integer.getInteger("udp.window", 64)));
+    private static final long MIN_RTO = TimeUnit.MILLISECONDS.toNanos(Long.getLong("udp.minRtoMillis", 10));
+    private static final long INITIAL_RTO = TimeUnit.MILLISECONDS.toNanos(200); // Until the first RTT sample
+    private static final long MAX_RTO = TimeUnit.SECONDS.toNanos(2);
+    private static final int FAST_RETRANSMIT_THRESHOLD = 3; // Later messages acked past a hole
+    private static final long TIMER_TICK_MS = Math.max(1, TimeUnit.NANOSECONDS.toMillis(MIN_RTO) / 4);
+    private static final int MAX_RETRANSMITS = Integer.getInteger("udp.maxRetransmits", 10); // Then the peer is given up on
+    private static final int SEND_QUEUE = Math.max(2 * WINDOW, Integer.getInteger("udp.sendQueue", 1024));
+    private static final long PEER_IDLE = TimeUnit.SECONDS.toNanos(Long.getLong("udp.peerIdleSeconds", 60));
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1); // How often idle peers are looked for
+
+    /**
+     * A message delivered in order from a peer.
+     */
+    public record Message(SocketAddress from, byte[] data) {}
+
+    /**
+     * One unacknowledged message.
+     */
+    private static final class Segment {
+        final int seq;
+        final byte[] datagram;
+        long sentAt;            // System.nanoTime() of the latest transmission
+        long deadline;          // Resent when this passes without an ack
+        boolean retransmitted;  // No RTT sample from this one (Karn's rule)
+        boolean sacked;         // Received out of order by the peer, never resent again
+        int retransmits;
+
+        Segment(int seq, byte[] datagram) {
+            this.seq = seq;
+            this.datagram = datagram;
+        }
+    }
+
+    /**
+     * Send and receive state for one peer address, guarded by its monitor.
+     */
+    private static final class Peer {
+        final SocketAddress address;
+
+        // Sending
+        int sendSession = ThreadLocalRandom.current().nextInt();
+        int nextSeq;                                   // Assigned to the next message sent
+        int base;                                      // Oldest unacknowledged sequence number
+        final Segment[] inFlight = new Segment[WINDOW]; // Indexed by seq % WINDOW
+        long srtt = -1;                                // Smoothed RTT, -1 until the first sample
+        long rttvar;
+        long rto = INITIAL_RTO;
+        int sendLimit = WINDOW;                        // Sequence numbers below this fit the peer's receive window
+        int waitingSenders;
+        final ArrayDeque<byte[]> backlog = new ArrayDeque<>(); // Offered messages waiting for window space
+        long probeAt;                                  // When to probe a closed window, 0 if not stalled
+        int unansweredProbes;
+        int failures;                                  // Bumped when the peer is given up on, fails blocked senders
+
+        // Receiving
+        boolean receiving;                             // A session has been seen from this peer
+        int receiveSession;
+        int expected;                                  // Next sequence number to deliver
+        final byte[][] reorder = new byte[WINDOW][];   // Out-of-order payloads, indexed by seq % WINDOW
+        int unread;                                    // Delivered but not yet taken by receive()
+        int advertisedLimit;                           // expected + window in the last ack sent
+
+        long lastActivity = System.nanoTime();         // Last datagram to or from the peer
+        boolean busy;                                  // In the timer's busy set
+        boolean removed;                               // Forgotten as idle, look the address up again
+
+        Peer(SocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    private final DatagramSocket socket;
+    private final ConcurrentHashMap<SocketAddress, Peer> peers = new ConcurrentHashMap<>();
+    private final Set<Peer> busy = ConcurrentHashMap.newKeySet(); // Peers with messages in flight or waiting, scanned every tick
+    private final BlockingQueue<Message> delivered = new LinkedBlockingQueue<>();
+    private final Thread receiver;
+    private final Thread timer;
+    private volatile boolean open = true;
+
+    private final LongAdder timeoutRetransmits = new LongAdder();
+    private final LongAdder fastRetransmits = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder failedPeers = new LongAdder();
+
+    public ReliableChannel(DatagramSocket socket) {
+        this.socket = socket;
+        this.receiver = Thread.ofPlatform().daemon().name("reliable-udp-receiver").start(this::receiveLoop);
+        this.timer = Thread.ofPlatform().daemon().name("reliable-udp-timer").start(this::timerLoop);
+    }
+
+    /**
+     * Sends a message, blocking while the window to that peer is full.
+     * @throws SocketTimeoutException if the peer is given up on while this waits
+     */
+    public void send(SocketAddress to, byte[] data) throws IOException, InterruptedException {
+        checkSize(data);
+        Segment segment;
+        while (true) {
+            Peer peer = peer(to);
+            synchronized (peer) {
+                if (peer.removed) {
+                    continue;
+                }
+                int failures = peer.failures;
+                while (open && peer.failures == failures && !(peer.backlog.isEmpty() && windowOpen(peer))) {
+                    markBusy(peer); // So the timer probes the window if nothing in flight will draw an ack
+                    peer.waitingSenders++;
+                    try {
+                        peer.wait();
+                    } finally {
+                        peer.waitingSenders--;
+                    }
+                }
+                if (!open) {
+                    throw new SocketException("Channel closed");
+                }
+                if (peer.failures != failures) {
+                    throw new SocketTimeoutException(to + " stopped acknowledging");
+                }
+                segment = enqueue(peer, data, System.nanoTime());
+                break;
+            }
+        }
+        socket.send(new DatagramPacket(segment.datagram, segment.datagram.length, to));
+    }
+
+    /**
+     * Sends a message without blocking. If the window to that peer is full, the message is
+     * queued and sent as the window opens, behind any queued before it.
+     * @return false if the peer's queue is full too, so the message was not taken
+     */
+    public boolean offer(SocketAddress to, byte[] data) throws IOException {
+        checkSize(data);
+        Segment segment;
+        while (true) {
+            Peer peer = peer(to);
+            synchronized (peer) {
+                if (peer.removed) {
+                    continue;
+                }
+                if (!open) {
+                    throw new SocketException("Channel closed");
+                }
+                if (peer.backlog.isEmpty() && windowOpen(peer)) {
+                    segment = enqueue(peer, data, System.nanoTime());
+                    break;
+                }
+                if (peer.backlog.size() >= SEND_QUEUE) {
+                    return false;
+                }
+                peer.backlog.addLast(data);
+                markBusy(peer);
+                return true;
+            }
+        }
+        socket.send(new DatagramPacket(segment.datagram, segment.datagram.length, to));
+        return true;
+    }
+
+    private static void checkSize(byte[] data) {
+        if (data.length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Message of " + data.length + " bytes exceeds " + MAX_PAYLOAD);
+        }
+    }
+
+    private static boolean windowOpen(Peer peer) {
+        return peer.nextSeq - peer.base < WINDOW && peer.nextSeq - peer.sendLimit < 0;
+    }
+
+    /**
+     * Numbers a message and records it as in flight; the caller transmits it after
+     * releasing the peer's monitor, which it holds here.
+     */
+    private Segment enqueue(Peer peer, byte[] data, long now) {
+        int seq = peer.nextSeq++;
+        ByteBuffer datagram = ByteBuffer.allocate(DATA_HEADER + data.length);
+        datagram.put(DATA).putInt(peer.sendSession).putInt(seq).put(data);
+        Segment segment = new Segment(seq, datagram.array());
+        segment.sentAt = now;
+        segment.deadline = now + peer.rto;
+        peer.inFlight[slot(seq)] = segment;
+        peer.lastActivity = now;
+        markBusy(peer);
+        return segment;
+    }
+
+    private void markBusy(Peer peer) {
+        if (!peer.busy) {
+            peer.busy = true;
+            busy.add(peer);
+        }
+    }
+
+    /**
+     * Waits for the next message delivered in order from any peer.
+     */
+    public Message receive() throws InterruptedException {
+        return consumed(delivered.take());
+    }
+
+    /**
+     * Like receive(), but returns null if nothing arrives within the timeout.
+     */
+    public Message receive(long timeout, TimeUnit unit) throws InterruptedException {
+        Message message = delivered.poll(timeout, unit);
+        return message == null ? null : consumed(message);
+    }
+
+    /**
+     * Frees the message's place in its sender's window. Once half a window has opened up
+     * since the last ack, the sender is told right away rather than with the next ack.
+     */
+    private Message consumed(Message message) {
+        Peer peer = peers.get(message.from());
+        if (peer == null) {
+            return message; // Forgotten already, there is no window left to update
+        }
+        byte[] update;
+        synchronized (peer) {
+            if (peer.removed) {
+                return message;
+            }
+            peer.unread--;
+            update = windowUpdate(peer);
+        }
+        if (update != null) {
+            try {
+                socket.send(new DatagramPacket(update, update.length, peer.address));
+            } catch (IOException e) {
+                // Lost like any datagram; the sender's window probe recovers
+            }
+        }
+        return message;
+    }
+
+    /**
+     * An ack to send unprompted if half a window has opened up since the last one, or null.
+     * Caller holds the peer's monitor.
+     */
+    private static byte[] windowUpdate(Peer peer) {
+        if (peer.receiving && peer.expected + receiveWindow(peer) - peer.advertisedLimit >= Math.max(1, WINDOW / 2)) {
+            return ack(peer);
+        }
+        return null;
+    }
+
+    /**
+     * Messages the peer may send beyond what it has delivered. Unread messages use up the
+     * window, and so does a backlog to the peer nearing SEND_QUEUE, leaving room for what
+     * the last window may still let in.
+     */
+    private static int receiveWindow(Peer peer) {
+        return Math.max(0, Math.min(WINDOW - peer.unread, SEND_QUEUE - WINDOW - peer.backlog.size()));
+    }
+
+    /**
+     * Waits until everything sent or queued to the peer has been acknowledged. Returns false
+     * on timeout, or if the peer was given up on.
+     */
+    public boolean flush(SocketAddress to, long timeout, TimeUnit unit) throws InterruptedException {
+        Peer peer = peer(to);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (peer) {
+            int failures = peer.failures;
+            while (open && peer.failures == failures && (peer.base != peer.nextSeq || !peer.backlog.isEmpty())) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(peer, remaining);
+            }
+            return open && peer.failures == failures;
+        }
+    }
+
+    public long timeoutRetransmits() {
+        return timeoutRetransmits.sum();
+    }
+
+    public long fastRetransmits() {
+        return fastRetransmits.sum();
+    }
+
+    /**
+     * Datagrams received again after they were already delivered or buffered.
+     */
+    public long duplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Peers given up on because they stopped acknowledging.
+     */
+    public long failedPeers() {
+        return failedPeers.sum();
+    }
+
+    /**
+     * Current retransmission timeout towards a peer, in nanoseconds.
+     */
+    public long rto(SocketAddress to) {
+        Peer peer = peer(to);
+        synchronized (peer) {
+            return peer.rto;
+        }
+    }
+
+    /**
+     * Stops the background threads and wakes blocked senders. Does not close the socket.
+     */
+    @Override
+    public void close() {
+        open = false;
+        receiver.interrupt();
+        timer.interrupt();
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                peer.notifyAll();
+            }
+        }
+    }
+
+    private Peer peer(SocketAddress address) {
+        return peers.computeIfAbsent(address, Peer::new);
+    }
+
+    private static int slot(int seq) {
+        return Math.floorMod(seq, WINDOW);
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[DATA_HEADER + MAX_PAYLOAD];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (open) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                ByteBuffer in = ByteBuffer.wrap(buffer, 0, packet.getLength());
+                if (in.remaining() >= DATA_HEADER && in.get(0) == DATA) {
+                    in.position(1);
+                    int peerSession = in.getInt();
+                    int seq = in.getInt();
+                    byte[] payload = Arrays.copyOfRange(buffer, DATA_HEADER, packet.getLength());
+                    byte[] ack;
+                    while ((ack = onData(peer(packet.getSocketAddress()), peerSession, seq, payload)) == null) {
+                        // The peer was forgotten as idle meanwhile, look it up again
+                    }
+                    socket.send(new DatagramPacket(ack, ack.length, packet.getSocketAddress()));
+                } else if (in.remaining() == ACK_LENGTH && in.get(0) == ACK) {
+                    in.position(1);
+                    int ackSession = in.getInt();
+                    int next = in.getInt();
+                    long sack = in.getLong();
+                    int window = in.getShort() & 0xFFFF;
+                    onAck(peer(packet.getSocketAddress()), ackSession, next, sack, window);
+                } else if (in.remaining() == PROBE_LENGTH && in.get(0) == PROBE) {
+                    Peer peer = peer(packet.getSocketAddress());
+                    byte[] ack = null;
+                    synchronized (peer) {
+                        if (!peer.removed && peer.receiving && peer.receiveSession == in.getInt(1)) {
+                            peer.lastActivity = System.nanoTime();
+                            ack = ack(peer);
+                        }
+                    }
+                    if (ack != null) {
+                        socket.send(new DatagramPacket(ack, ack.length, packet.getSocketAddress()));
+                    }
+                }
+                // Anything else is not ours, ignore it
+            } catch (IOException e) {
+                if (open && !socket.isClosed()) {
+                    System.err.println("Reliable UDP receive error: " + e.getMessage());
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffers or delivers an incoming message and returns the ack to send back, or null if
+     * the peer has just been forgotten and must be looked up again.
+     */
+    private byte[] onData(Peer peer, int peerSession, int seq, byte[] payload) {
+        synchronized (peer) {
+            if (peer.removed) {
+                return null;
+            }
+            peer.lastActivity = System.nanoTime();
+            if (!peer.receiving || peer.receiveSession != peerSession) {
+                // First message from this sender, or it restarted: its numbering starts over,
+                // and so does ours, since the new incarnation knows nothing of our messages
+                if (peer.receiving) {
+                    resetSending(peer);
+                }
+                peer.receiving = true;
+                peer.receiveSession = peerSession;
+                peer.expected = 0;
+                Arrays.fill(peer.reorder, null);
+            }
+            int ahead = seq - peer.expected;
+            if (ahead < 0 || (ahead < WINDOW && ahead > 0 && peer.reorder[slot(seq)] != null)) {
+                duplicates.increment(); // Our ack was lost or the sender retransmitted early; ack again
+            } else if (ahead == 0) {
+                delivered.add(new Message(peer.address, payload));
+                peer.unread++;
+                peer.expected++;
+                // The gap is filled: release everything buffered right behind it
+                byte[] next;
+                while ((next = peer.reorder[slot(peer.expected)]) != null) {
+                    peer.reorder[slot(peer.expected)] = null;
+                    delivered.add(new Message(peer.address, next));
+                    peer.unread++;
+                    peer.expected++;
+                }
+            } else if (ahead < WINDOW) {
+                peer.reorder[slot(seq)] = payload;
+            }
+            // Beyond the window can't happen with a conforming sender; dropped, the ack tells it where we are
+            return ack(peer);
+        }
+    }
+
+    /**
+     * Builds an ack of everything received from the peer so far. Caller holds the peer's monitor.
+     */
+    private static byte[] ack(Peer peer) {
+        long sack = 0;
+        for (int i = 0; i < WINDOW - 1; i++) {
+            if (peer.reorder[slot(peer.expected + 1 + i)] != null) {
+                sack |= 1L << i;
+            }
+        }
+        int window = receiveWindow(peer);
+        peer.advertisedLimit = peer.expected + window;
+        ByteBuffer ack = ByteBuffer.allocate(ACK_LENGTH);
+        ack.put(ACK).putInt(peer.receiveSession).putInt(peer.expected).putLong(sack).putShort((short) window);
+        return ack.array();
+    }
+
+    /**
+     * Slides the window past acknowledged messages, takes RTT samples and fast-retransmits holes.
+     */
+    private void onAck(Peer peer, int ackSession, int next, long sack, int window) throws IOException {
+        List<Segment> transmit = null; // Fast retransmits, then queued messages the window now admits
+        byte[] update = null;
+        synchronized (peer) {
+            if (peer.removed || ackSession != peer.sendSession) {
+                return; // Ack for messages sent before a reset
+            }
+            if (next - peer.base < 0 || next - peer.nextSeq > 0) {
+                return; // Stale or bogus
+            }
+            long now = System.nanoTime();
+            peer.lastActivity = now;
+            peer.unansweredProbes = 0;
+            boolean advanced = next != peer.base;
+            for (int seq = peer.base; seq != next; seq++) {
+                Segment segment = peer.inFlight[slot(seq)];
+                if (segment != null && !segment.retransmitted && !segment.sacked) {
+                    sampleRtt(peer, now - segment.sentAt);
+                }
+                peer.inFlight[slot(seq)] = null;
+            }
+            peer.base = next;
+
+            int sackedAbove = 0; // Selectively acked messages above the one being looked at
+            for (int i = WINDOW - 2; i >= 0; i--) {
+                int seq = next + 1 + i;
+                if (seq - peer.nextSeq >= 0) {
+                    continue;
+                }
+                Segment segment = peer.inFlight[slot(seq)];
+                if (segment == null) {
+                    continue;
+                }
+                if ((sack & (1L << i)) != 0) {
+                    if (!segment.sacked && !segment.retransmitted) {
+                        sampleRtt(peer, now - segment.sentAt);
+                    }
+                    segment.sacked = true;
+                    sackedAbove++;
+                } else if (sackedAbove >= FAST_RETRANSMIT_THRESHOLD && !segment.retransmitted) {
+                    transmit = markResent(transmit, peer, segment, now);
+                    fastRetransmits.increment();
+                }
+            }
+            // The first unacked message is the hole every SACK bit lies past
+            Segment first = peer.inFlight[slot(next)];
+            if (first != null && sackedAbove >= FAST_RETRANSMIT_THRESHOLD && !first.retransmitted) {
+                transmit = markResent(transmit, peer, first, now);
+                fastRetransmits.increment();
+            }
+            boolean opened = next + window - peer.sendLimit > 0;
+            peer.sendLimit = next + window;
+            if (opened) {
+                peer.probeAt = 0;
+            }
+            // Queued messages go first, ahead of blocked senders, to keep offer() order
+            if (!peer.backlog.isEmpty()) {
+                while (!peer.backlog.isEmpty() && windowOpen(peer)) {
+                    transmit = add(transmit, enqueue(peer, peer.backlog.pollFirst(), now));
+                }
+                update = windowUpdate(peer); // A shorter backlog may reopen the peer's window to us
+            }
+            if (advanced || opened) {
+                peer.notifyAll(); // Window space for blocked senders, or flush() completed
+            }
+        }
+        sendAll(peer, transmit);
+        if (update != null) {
+            socket.send(new DatagramPacket(update, update.length, peer.address));
+        }
+    }
+
+    private void timerLoop() {
+        long nextSweep = System.nanoTime() + SWEEP_INTERVAL;
+        while (open) {
+            try {
+                Thread.sleep(TIMER_TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Peer peer : busy) {
+                try {
+                    tick(peer, now);
+                } catch (IOException e) {
+                    if (open) {
+                        System.err.println("Reliable UDP retransmit error: " + e.getMessage());
+                    }
+                }
+            }
+            if (now - nextSweep >= 0) {
+                forgetIdlePeers(now);
+                nextSweep = now + SWEEP_INTERVAL;
+            }
+        }
+    }
+
+    /**
+     * Resends expired messages to one busy peer and probes its window if it is stalled on it.
+     */
+    private void tick(Peer peer, long now) throws IOException {
+        List<Segment> resend = null;
+        byte[] probe = null;
+        synchronized (peer) {
+            if (peer.base == peer.nextSeq && peer.backlog.isEmpty() && peer.waitingSenders == 0) {
+                peer.busy = false; // Nothing left to time, until the next send
+                busy.remove(peer);
+                return;
+            }
+            if (peer.base == peer.nextSeq && peer.nextSeq - peer.sendLimit >= 0) {
+                // Stalled on the peer's closed window with nothing in flight to draw an ack
+                if (peer.probeAt == 0) {
+                    peer.probeAt = now + peer.rto;
+                } else if (peer.probeAt - now <= 0) {
+                    if (peer.unansweredProbes >= MAX_RETRANSMITS) {
+                        giveUp(peer);
+                        return;
+                    }
+                    probe = ByteBuffer.allocate(PROBE_LENGTH).put(PROBE).putInt(peer.sendSession).array();
+                    peer.unansweredProbes++;
+                    peer.probeAt = now + Math.min(MAX_RTO, peer.rto << Math.min(peer.unansweredProbes, 16));
+                }
+            }
+            boolean expired = false;
+            for (int seq = peer.base; seq != peer.nextSeq; seq++) {
+                Segment segment = peer.inFlight[slot(seq)];
+                if (segment != null && !segment.sacked && segment.deadline - now <= 0) {
+                    if (segment.retransmits >= MAX_RETRANSMITS) {
+                        giveUp(peer);
+                        return;
+                    }
+                    if (!expired) {
+                        peer.rto = Math.min(MAX_RTO, peer.rto * 2); // Back off once per expiry
+                        expired = true;
+                    }
+                    resend = markResent(resend, peer, segment, now);
+                    timeoutRetransmits.increment();
+                }
+            }
+        }
+        sendAll(peer, resend);
+        if (probe != null) {
+            socket.send(new DatagramPacket(probe, probe.length, peer.address));
+        }
+    }
+
+    /**
+     * The peer stopped acknowledging: drop everything in flight or queued for it and fail its
+     * blocked senders. Caller holds the peer's monitor.
+     */
+    private void giveUp(Peer peer) {
+        System.err.println("Reliable UDP: " + peer.address + " stopped acknowledging, dropped "
+                + (peer.nextSeq - peer.base + peer.backlog.size()) + " messages for it");
+        failedPeers.increment();
+        peer.failures++;
+        resetSending(peer);
+    }
+
+    /**
+     * Starts the peer's send side over under a new session. Caller holds the peer's monitor.
+     */
+    private static void resetSending(Peer peer) {
+        peer.sendSession = ThreadLocalRandom.current().nextInt();
+        peer.nextSeq = 0;
+        peer.base = 0;
+        peer.sendLimit = WINDOW;
+        Arrays.fill(peer.inFlight, null);
+        peer.backlog.clear();
+        peer.probeAt = 0;
+        peer.unansweredProbes = 0;
+        peer.notifyAll();
+    }
+
+    /**
+     * Drops peers with nothing in flight or unread and no traffic for PEER_IDLE.
+     */
+    private void forgetIdlePeers(long now) {
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                if (!peer.busy && peer.unread == 0 && now - peer.lastActivity > PEER_IDLE) {
+                    peer.removed = true;
+                    peers.remove(peer.address, peer);
+                }
+            }
+        }
+    }
+
+    private static List<Segment> markResent(List<Segment> resend, Peer peer, Segment segment, long now) {
+        segment.retransmitted = true;
+        segment.retransmits++;
+        segment.sentAt = now;
+        segment.deadline = now + peer.rto;
+        return add(resend, segment);
+    }
+
+    private static List<Segment> add(List<Segment> segments, Segment segment) {
+        if (segments == null) {
+            segments = new ArrayList<>();
+        }
+        segments.add(segment);
+        return segments;
+    }
+
+    private void sendAll(Peer peer, List<Segment> segments) throws IOException {
+        if (segments != null) {
+            for (Segment segment : segments) {
+                socket.send(new DatagramPacket(segment.datagram, segment.datagram.length, peer.address));
+            }
+        }
+    }
+
+    /**
+     * RFC 6298 estimator: SRTT and RTTVAR with gains 1/8 and 1/4, RTO = SRTT + 4 * RTTVAR.
+     */
+    private static void sampleRtt(Peer peer, long rtt) {
+        if (peer.srtt < 0) {
+            peer.srtt = rtt;
+            peer.rttvar = rtt / 2;
+        } else {
+            peer.rttvar = (3 * peer.rttvar + Math.abs(peer.srtt - rtt)) / 4;
+            peer.srtt = (7 * peer.srtt + rtt) / 8;
+        }
+        peer.rto = Math.max(MIN_RTO, Math.min(MAX_RTO, peer.srtt + 4 * peer.rttvar));
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.networking.udp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReliableUdpBench compares plain stop-and-wait UDP with ReliableChannel under packet
+ * loss. Both UDPBroadcastServer modes run in this process on loopback, each behind a
+ * LossyShim that drops datagrams in both directions at the given rates.
+ *   stop-and-wait   UDPBroadcastClient's plain protocol: one message, then wait for its
+ *                   echo, resending after STOP_AND_WAIT_TIMEOUT_MS without one
+ *   reliable        ReliableChannel on both sides: a window of messages in flight,
+ *                   selective acks and RTT-based retransmits
+ * For each loss rate, one closed-loop run measures throughput (echoes/s). A second run
+ * paces messages at a fixed rate and measures latency from the intended send time to
+ * the echo, so stalls behind a lost datagram show up in the tail. The reliable rows
+ * also check that echoes come back complete and in order.
+ *
+ * Usage: ReliableUdpBench [seconds] [paced messages/s] [loss rates, e.g. 0,0.01,0.05]
+ */
+public class ReliableUdpBench {
+    private static final String HOST = "127.0.0.1";
+    private static final int PLAIN_PORT = 12470;
+    private static final int RELIABLE_PORT = 12471;
+    private static final int PLAIN_SHIM_PORT = 12472;
+    private static final int RELIABLE_SHIM_PORT = 12473;
+    private static final int STOP_AND_WAIT_TIMEOUT_MS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int pacedRate = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        double[] lossRates = Arrays.stream((args.length > 2 ? args[2] : "0,0.01,0.05").split(","))
+                .mapToDouble(Double::parseDouble).toArray();
+        System.setProperty("udp.quiet", "true"); // Per-message logging would dominate the measurement
+
+        startServer(PLAIN_PORT, false);
+        startServer(RELIABLE_PORT, true);
+        LossyShim plainShim = new LossyShim(PLAIN_SHIM_PORT, new InetSocketAddress(HOST, PLAIN_PORT), 0, 1);
+        LossyShim reliableShim = new LossyShim(RELIABLE_SHIM_PORT, new InetSocketAddress(HOST, RELIABLE_PORT), 0, 2);
+        plainShim.start();
+        reliableShim.start();
+
+        // Warm up both paths before measuring
+        stopAndWait(1, 0);
+        reliable(1, 0);
+
+        System.out.printf("%-14s %6s %10s %10s %10s %10s %10s %9s%n",
+                "mode", "loss", "msg/s", "p50 (us)", "p99 (us)", "p99.9 (us)", "max (us)", "resends");
+        for (double loss : lossRates) {
+            plainShim.setLossRate(loss);
+            reliableShim.setLossRate(loss);
+            print("stop-and-wait", loss, stopAndWait(seconds, 0));
+            print("reliable", loss, reliable(seconds, 0));
+            print("  paced", loss, stopAndWait(seconds, pacedRate));
+            print("  paced", loss, reliable(seconds, pacedRate));
+        }
+        System.exit(0);
+    }
+
+    private record Result(double rate, long[] sortedLatencies, long resends) {}
+
+    private static void startServer(int port, boolean reliable) throws IOException {
+        DatagramSocket socket = new DatagramSocket(port);
+        Thread.ofPlatform().daemon().name("udp-server-" + port).start(() -> {
+            try {
+                if (reliable) {
+                    UDPBroadcastServer.serveReliable(socket);
+                } else {
+                    UDPBroadcastServer.serve(socket);
+                }
+            } catch (Exception e) {
+                System.err.println("Server on port " + port + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * One message at a time through the plain shim; a lost message or echo costs a timeout.
+     * With rate 0 the next message goes out as soon as the echo is in, otherwise on a fixed schedule.
+     */
+    private static Result stopAndWait(int seconds, int rate) throws IOException {
+        InetSocketAddress shim = new InetSocketAddress(HOST, PLAIN_SHIM_PORT);
+        long[] latencies = new long[1 << 16];
+        int count = 0;
+        long resends = 0;
+        byte[] receiveBuffer = new byte[1024];
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(STOP_AND_WAIT_TIMEOUT_MS);
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+            for (long id = 0; ; id++) {
+                long intended = rate > 0 ? start + id * interval : System.nanoTime();
+                if (intended >= end) {
+                    break;
+                }
+                waitUntil(intended);
+                byte[] message = ("m" + id).getBytes(StandardCharsets.US_ASCII);
+                String expected = "Echo: m" + id;
+                socket.send(new DatagramPacket(message, message.length, shim));
+                while (true) {
+                    DatagramPacket reply = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+                    try {
+                        socket.receive(reply);
+                    } catch (SocketTimeoutException e) {
+                        socket.send(new DatagramPacket(message, message.length, shim));
+                        resends++;
+                        continue;
+                    }
+                    // Late echoes of earlier, resent messages are skipped
+                    if (expected.equals(new String(receiveBuffer, 0, reply.getLength(), StandardCharsets.US_ASCII))) {
+                        break;
+                    }
+                }
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = System.nanoTime() - intended;
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            latencies = Arrays.copyOf(latencies, count);
+            Arrays.sort(latencies);
+            return new Result(count / elapsed, latencies, resends);
+        }
+    }
+
+    /**
+     * Messages stream through the reliable shim, limited only by the window (rate 0) or a fixed
+     * schedule; a second thread collects the echoes, which must arrive complete and in order.
+     */
+    private static Result reliable(int seconds, int rate) throws Exception {
+        InetSocketAddress shim = new InetSocketAddress(HOST, RELIABLE_SHIM_PORT);
+        try (DatagramSocket socket = new DatagramSocket();
+             ReliableChannel channel = new ReliableChannel(socket)) {
+            long[] sentAt = new long[1 << 20];
+            AtomicLong sent = new AtomicLong();
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+
+            Thread sender = Thread.ofPlatform().name("reliable-sender").start(() -> {
+                try {
+                    for (int id = 0; id < sentAt.length; id++) {
+                        long intended = rate > 0 ? start + id * interval : System.nanoTime();
+                        if (intended >= end) {
+                            break;
+                        }
+                        waitUntil(intended);
+                        sentAt[id] = intended; // Published to the receiving side by the sent counter
+                        sent.set(id + 1);
+                        channel.send(shim, ("m" + id).getBytes(StandardCharsets.US_ASCII));
+                    }
+                } catch (IOException | InterruptedException e) {
+                    System.err.println("Reliable sender stopped: " + e.getMessage());
+                }
+            });
+
+            long[] latencies = new long[sentAt.length];
+            int received = 0;
+            while (true) {
+                ReliableChannel.Message echo = channel.receive(2, TimeUnit.SECONDS);
+                if (echo == null) {
+                    if (!sender.isAlive() && received >= sent.get()) {
+                        break; // Everything sent has been echoed
+                    }
+                    System.err.println("No echo for 2 s, " + received + " of " + sent.get() + " received");
+                    break;
+                }
+                String expected = "Echo: m" + received;
+                if (!expected.equals(new String(echo.data(), StandardCharsets.US_ASCII))) {
+                    throw new IllegalStateException("Out of order: expected '" + expected + "', got '" + new String(echo.data()) + "'");
+                }
+                latencies[received] = System.nanoTime() - sentAt[received];
+                received++;
+                if (!sender.isAlive() && received >= sent.get()) {
+                    break;
+                }
+            }
+            sender.join();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            latencies = Arrays.copyOf(latencies, received);
+            Arrays.sort(latencies);
+            return new Result(received / elapsed, latencies, channel.timeoutRetransmits() + channel.fastRetransmits());
+        }
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long wait;
+        while ((wait = nanoTime - System.nanoTime()) > 0) {
+            if (wait > 100_000) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static void print(String mode, double loss, Result result) {
+        long[] sorted = result.sortedLatencies();
+        if (sorted.length == 0) {
+            System.out.printf("%-14s %5.1f%% %10s%n", mode, loss * 100, "no samples");
+            return;
+        }
+        System.out.printf("%-14s %5.1f%% %10.0f %10.1f %10.1f %10.1f %10.1f %9d%n", mode, loss * 100, result.rate(),
+                sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3,
+                sorted[(int) (sorted.length * 0.999)] / 1e3, sorted[sorted.length - 1] / 1e3, result.resends());
+    }
+}
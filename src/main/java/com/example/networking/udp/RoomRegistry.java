@@ -0,0 +1,132 @@
+package com.example.networking.udp;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RoomRegistry keeps the subscribers of every chat room in its own partition.
+ * Each room maps to an immutable snapshot array of writers: subscribe and
+ * unsubscribe replace the array (copy-on-write) under the map's per-bin lock,
+ * while publish just reads the current array and iterates it without locking.
+ * A publish therefore only touches the members of the target room.
+ */
+public class RoomRegistry {
+    private static final PrintWriter[] NO_SUBSCRIBERS = new PrintWriter[0];
+
+    /**
+     * Notified after a room gains its first subscriber or loses its last one.
+     * Listeners should re-read the room's state rather than assume the direction,
+     * since concurrent changes may already have flipped it again.
+     */
+    public interface RoomListener {
+        void roomChanged(String room);
+    }
+
+    private volatile RoomListener listener; // Optional, e.g. a ChatRelay advertising interest to peers
+
+    // Key: room name, Value: snapshot of the room's subscribers (never empty, empty rooms are removed)
+    private final ConcurrentHashMap<String, PrintWriter[]> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a subscriber to a room, creating the room if needed.
+     * @return true if the subscriber was not already a member.
+     */
+    public boolean subscribe(String room, PrintWriter subscriber) {
+        boolean[] added = new boolean[1];
+        boolean[] created = new boolean[1];
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                added[0] = true;
+                created[0] = true;
+                return new PrintWriter[] { subscriber };
+            }
+            if (indexOf(members, subscriber) >= 0) {
+                return members; // Already subscribed, keep the current snapshot
+            }
+            PrintWriter[] copy = Arrays.copyOf(members, members.length + 1);
+            copy[members.length] = subscriber;
+            added[0] = true;
+            return copy;
+        });
+        if (created[0]) {
+            notifyListener(room);
+        }
+        return added[0];
+    }
+
+    /**
+     * Removes a subscriber from a room. The room is dropped once its last member leaves.
+     * @return true if the subscriber was a member.
+     */
+    public boolean unsubscribe(String room, PrintWriter subscriber) {
+        boolean[] removed = new boolean[1];
+        boolean[] emptied = new boolean[1];
+        rooms.computeIfPresent(room, (name, members) -> {
+            int index = indexOf(members, subscriber);
+            if (index < 0) {
+                return members;
+            }
+            removed[0] = true;
+            if (members.length == 1) {
+                emptied[0] = true;
+                return null; // Returning null removes the room from the map
+            }
+            PrintWriter[] copy = new PrintWriter[members.length - 1];
+            System.arraycopy(members, 0, copy, 0, index);
+            System.arraycopy(members, index + 1, copy, index, members.length - index - 1);
+            return copy;
+        });
+        if (emptied[0]) {
+            notifyListener(room);
+        }
+        return removed[0];
+    }
+
+    /**
+     * Sends a line to every current subscriber of a room.
+     * @return the number of subscribers the line was delivered to.
+     */
+    public int publish(String room, String line) {
+        PrintWriter[] members = subscribers(room);
+        for (PrintWriter writer : members) {
+            writer.println(line);
+        }
+        return members.length;
+    }
+
+    /**
+     * Returns the current snapshot of a room's subscribers. The array must not be modified.
+     */
+    public PrintWriter[] subscribers(String room) {
+        return rooms.getOrDefault(room, NO_SUBSCRIBERS);
+    }
+
+    /**
+     * Returns a live view of the names of all non-empty rooms.
+     */
+    public Set<String> rooms() {
+        return rooms.keySet();
+    }
+
+    public void setListener(RoomListener listener) {
+        this.listener = listener;
+    }
+
+    private void notifyListener(String room) {
+        RoomListener current = listener;
+        if (current != null) {
+            current.roomChanged(room); // Called outside compute() so listeners may do I/O
+        }
+    }
+
+    private static int indexOf(PrintWriter[] members, PrintWriter subscriber) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == subscriber) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -2,19 +2,35 @@ package com.example.networking.udp;
 
 import java.net.*;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Usage: UDPBroadcastClient [--reliable]
+ * Plain mode sends each line as a datagram and waits for the reply, giving up after
+ * RESPONSE_TIMEOUT_MS since either datagram may be lost. With --reliable (against
+ * UDPBroadcastServer --reliable) lines go through a ReliableChannel: nothing is lost,
+ * replies arrive in order, and input isn't held up waiting for them.
+ */
 public class UDPBroadcastClient {
     private static final String SERVER_ADDRESS = "127.0.0.1"; // or your server IP
     private static final int SERVER_PORT = 5000;
     private static final int BUFFER_SIZE = 1024;
+    private static final int RESPONSE_TIMEOUT_MS = 2000;
 
     public static void main(String[] args) throws Exception {
+        boolean reliable = args.length > 0 && "--reliable".equals(args[0]);
         try (
         DatagramSocket socket = new DatagramSocket(); // client socket
             Scanner scanner = new Scanner(System.in)
         ) {
             InetAddress serverAddress = InetAddress.getByName(SERVER_ADDRESS);
+            if (reliable) {
+                runReliable(socket, new InetSocketAddress(serverAddress, SERVER_PORT), scanner);
+                return;
+            }
             byte[] receiveBuffer = new byte[BUFFER_SIZE];
+            socket.setSoTimeout(RESPONSE_TIMEOUT_MS); // A lost datagram must not hang the client
 
             System.out.println("UDP client started. Type 'bye' to exit.");
 
@@ -29,10 +45,13 @@ public class UDPBroadcastClient {
 
                 // Receive response from server
                 DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
-                socket.receive(receivePacket); // blocking until a response is received
-
-                String response = new String(receivePacket.getData(), 0, receivePacket.getLength());
-                System.out.println("Server says: " + response);
+                try {
+                    socket.receive(receivePacket); // blocking until a response is received or the timeout passes
+                    String response = new String(receivePacket.getData(), 0, receivePacket.getLength());
+                    System.out.println("Server says: " + response);
+                } catch (SocketTimeoutException e) {
+                    System.out.println("No response within " + RESPONSE_TIMEOUT_MS + " ms, the message or the reply was lost.");
+                }
 
                 // Exit condition
                 if ("bye".equalsIgnoreCase(message.trim())) {
@@ -45,4 +64,38 @@ public class UDPBroadcastClient {
             System.err.println("Client error: " + e.getMessage());
         }
     }
+
+    private static void runReliable(DatagramSocket socket, InetSocketAddress server, Scanner scanner) throws Exception {
+        CountDownLatch goodbye = new CountDownLatch(1);
+        try (ReliableChannel channel = new ReliableChannel(socket)) {
+            // Replies are printed as they arrive, so typing never waits for the server
+            Thread printer = Thread.ofPlatform().daemon().name("udp-replies").start(() -> {
+                try {
+                    while (true) {
+                        String response = new String(channel.receive().data());
+                        System.out.println("Server says: " + response);
+                        if ("Goodbye!".equals(response)) {
+                            goodbye.countDown();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Client is exiting
+                }
+            });
+
+            System.out.println("UDP client started (reliable). Type 'bye' to exit.");
+            while (scanner.hasNextLine()) {
+                String message = scanner.nextLine();
+                channel.send(server, message.getBytes());
+                if ("bye".equalsIgnoreCase(message.trim())) {
+                    if (!goodbye.await(RESPONSE_TIMEOUT_MS * 5L, TimeUnit.MILLISECONDS)) {
+                        System.out.println("Server did not answer 'bye', is it running with --reliable?");
+                    }
+                    break;
+                }
+            }
+            System.out.println("Exiting client.");
+            printer.interrupt();
+        }
+    }
 }
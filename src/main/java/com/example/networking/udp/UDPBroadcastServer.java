@@ -1,47 +1,116 @@
 package com.example.networking.udp;
 
 
+import com.example.networking.ratelimit.RateLimiter;
+
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
 
+/**
+ * Usage: UDPBroadcastServer [port] [--reliable]
+ * With --reliable, clients talk to it through a ReliableChannel (UDPBroadcastClient --reliable).
+ */
 public class UDPBroadcastServer {
+    private static final int PORT = 5000;
+    // Per-message logging; disable with -Dudp.quiet=true when benchmarking
+    private static final boolean VERBOSE = !Boolean.getBoolean("udp.quiet");
+
     public static void main(String[] args) throws Exception {
-        final int PORT = 5000;
+        int port = PORT;
+        boolean reliable = false;
+        for (String arg : args) {
+            if ("--reliable".equals(arg)) {
+                reliable = true;
+            } else {
+                port = Integer.parseInt(arg);
+            }
+        }
+
+        try (DatagramSocket socket = new DatagramSocket(port)) {
+            System.out.println("UDP Server listening on port " + port + (reliable ? " (reliable)" : "") + "...");
+            if (reliable) {
+                serveReliable(socket);
+            } else {
+                serve(socket);
+            }
+        }
+    }
+
+    static void serve(DatagramSocket socket) throws Exception {
         byte[] buffer = new byte[1024];
+        // Per-source limits, enabled with -Dratelimit.messagesPerSecond / -Dratelimit.bytesPerSecond
+        RateLimiter rateLimiter = RateLimiter.fromSystemProperties();
+        long dropped = 0;
 
-        try (DatagramSocket socket = new DatagramSocket(PORT)) {
-            System.out.println("UDP Server listening on port " + PORT + "...");
+        while (true) {
+            // Receive packet from client
+            DatagramPacket requestPacket = new DatagramPacket(buffer, buffer.length);
+            socket.receive(requestPacket);
 
-            while (true) {
-                // Receive packet from client
-                DatagramPacket requestPacket = new DatagramPacket(buffer, buffer.length);
-                socket.receive(requestPacket);
+            // UDP has no flow control to push back with, so datagrams over the limit are dropped
+            if (rateLimiter != null && rateLimiter.acquire(requestPacket.getAddress(), requestPacket.getLength()) > 0) {
+                if (++dropped % 1000 == 1) {
+                    System.out.println("Rate limit exceeded by " + requestPacket.getAddress() + ", dropped " + dropped + " datagrams so far");
+                }
+                continue;
+            }
+
+            String msg = new String(requestPacket.getData(), 0, requestPacket.getLength());
+            String clientInfo = requestPacket.getAddress() + ":" + requestPacket.getPort();
+            String response = respond(msg, clientInfo);
+
+            // Send response
+            byte[] responseData = response.getBytes();
+            DatagramPacket responsePacket = new DatagramPacket(
+                    responseData,
+                    responseData.length,
+                    requestPacket.getAddress(),
+                    requestPacket.getPort()
+            );
+            socket.send(responsePacket);
 
-                String msg = new String(requestPacket.getData(), 0, requestPacket.getLength());
-                String clientInfo = requestPacket.getAddress() + ":" + requestPacket.getPort();
-                System.out.println("Received from " + clientInfo + " -> " + msg);
+            // Clear buffer
+            buffer = new byte[1024];
+        }
+    }
 
+    /**
+     * Same replies as serve(), but every message and reply goes through a ReliableChannel,
+     * so they all arrive, in order. Replies are offered, never sent blocking: a client that
+     * stops reading only fills its own queue in the channel, and once that is full its
+     * further replies are dropped instead of stalling the server for everyone else.
+     */
+    static void serveReliable(DatagramSocket socket) throws Exception {
+        RateLimiter rateLimiter = RateLimiter.fromSystemProperties();
+        long dropped = 0;
+        try (ReliableChannel channel = new ReliableChannel(socket)) {
+            while (true) {
+                ReliableChannel.Message request = channel.receive();
                 String response;
-                if ("bye".equalsIgnoreCase(msg.trim())) {
-                    response = "Goodbye!";
-                    System.out.println("Client " + clientInfo + " sent 'bye'. Responded and continuing...");
+                // A delivered message has already been acked, so dropping it would lose it for good: refuse instead
+                if (rateLimiter != null && rateLimiter.acquire(((InetSocketAddress) request.from()).getAddress(), request.data().length) > 0) {
+                    response = "SERVER BUSY: rate limit exceeded";
                 } else {
-                    response = "Echo: " + msg;
+                    response = respond(new String(request.data()), request.from().toString());
                 }
+                if (!channel.offer(request.from(), response.getBytes()) && ++dropped % 1000 == 1) {
+                    System.out.println("Client " + request.from() + " is not reading its replies, dropped " + dropped + " replies so far");
+                }
+            }
+        }
+    }
 
-                // Send response
-                byte[] responseData = response.getBytes();
-                DatagramPacket responsePacket = new DatagramPacket(
-                        responseData,
-                        responseData.length,
-                        requestPacket.getAddress(),
-                        requestPacket.getPort()
-                );
-                socket.send(responsePacket);
-
-                // Clear buffer
-                buffer = new byte[1024];
+    private static String respond(String msg, String clientInfo) {
+        if (VERBOSE) {
+            System.out.println("Received from " + clientInfo + " -> " + msg);
+        }
+        if ("bye".equalsIgnoreCase(msg.trim())) {
+            if (VERBOSE) {
+                System.out.println("Client " + clientInfo + " sent 'bye'. Responded and continuing...");
             }
+            return "Goodbye!";
         }
+        return "Echo: " + msg;
     }
 }